@@ -0,0 +1,261 @@
+/**Processes many input files without asking which to process, for unattended runs
+ * over whole folders of contact dumps. Inputs may be files, directories (every file
+ * directly inside) or globs such as input/*.txt, where ** matches any number of
+ * folders. The files are processed concurrently on a bounded pool of worker threads, and each gets its
+ * own output/<name>.csv and output/<name>.summary.txt
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BatchRunner
+{
+	/** Processes every input named by options.inputs, printing each one's totals
+	 * in the order given once it has finished
+	 * @throws IOException if any input could not be processed; the others are still processed
+	 */
+	public static void run(RunOptions options) throws IOException
+	{
+		List<File> files = expand(options.inputs);
+		if (files.isEmpty())
+		{
+			System.out.println("No input files matched " + options.inputs);
+			return;
+		}
+		String[] names = outputNames(files);
+		//with one file, parallelism goes into the file itself; otherwise into running files side by side
+		boolean parallelWithin = options.parallel && files.size() == 1;
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.threads, files.size()));
+		int failed = 0;
+		try
+		{
+			List<Future<ChiSquaredSummary>> results = new ArrayList<>();
+			for (int i = 0; i < files.size(); i++)
+			{
+				File file = files.get(i);
+				String name = names[i];
+				results.add(pool.submit(() -> process(file, name, options, parallelWithin)));
+			}
+
+			for (int i = 0; i < files.size(); i++)
+			{
+				System.out.println("== " + files.get(i).getPath() + " -> " + Runner.OUTPUT_ROOT + "/" + names[i]);
+				try
+				{
+					results.get(i).get().print(System.out);
+				}
+				catch (ExecutionException e)
+				{
+					System.out.println("Failed: " + e.getCause());
+					failed++;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing inputs", e);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		if (failed > 0)
+			throw new IOException(failed + " of " + files.size() + " inputs could not be processed");
+	}
+
+	/** Parses and tests one input, writing its results and summary to folder output **/
+	private static ChiSquaredSummary process(File file, String name, RunOptions options, boolean parallel) 
+			throws IOException
+	{
+		new File(Runner.OUTPUT_ROOT).mkdirs();
+		IndividualIndex input = null;
+		if (options.graph)
+		{
+			if (Runner.sharesGraphPass(options))
+				input = new IndividualIndex();
+			Runner.logGraph(file, name, input);
+		}
+		if (options.memoryBudget > 0 || options.offHeap) //each input gets the whole budget
+		{
+			PrintStream summaryOut = openSummary(name);
+			try
+			{
+				ChiSquaredSummary summary = options.offHeap 
+						? Runner.processOffHeap(file, name, options, parallel, summaryOut)
+						: Runner.processExternal(file, name, options, summaryOut);
+				summary.print(summaryOut);
+				return summary;
+			}
+			finally
+			{
+				summaryOut.close();
+			}
+		}
+
+		IncrementalIngest ingest = null;
+		if (options.incremental)
+		{
+			ingest = Runner.readIncremental(file, name);
+			input = ingest.getInput();
+		}
+		else if (options.snapshot)
+			input = Runner.readSnapshot(file, name, parallel);
+		else if (input == null) //not already read along with the graph
+			input = Runner.readInput(file, parallel);
+
+		PrintStream summaryOut = openSummary(name);
+		try
+		{
+			ChiSquaredSummary summary;
+			if (ingest != null)
+			{
+				summary = ingest.test(options.levels, parallel, summaryOut);
+				ingest.checkpoint();
+				summaryOut.println(ingest.describe());
+			}
+			else
+				summary = Runner.test(input, options, parallel, summaryOut);
+			summary.print(summaryOut);
+			if (options.models)
+				ModelSelector.run(input, parallel, summaryOut).print(summaryOut);
+			if (options.sweepThresholds != null)
+				Runner.logSweep(input, name, options, parallel);
+			Runner.logOutput(input, name, options.gzip, options.outputShards);
+			return summary;
+		}
+		finally
+		{
+			summaryOut.close();
+		}
+	}
+
+	private static PrintStream openSummary(String name) throws IOException
+	{
+		return new PrintStream(new FileOutputStream(new File(Runner.OUTPUT_ROOT, name + ".summary.txt")));
+	}
+
+	/** Turns the files, directories and globs given on the command line into a list
+	 * of files, keeping the order given and sorting what each directory or glob matches
+	 * @throws IOException if a directory cannot be listed, or a named file does not exist
+	 */
+	static List<File> expand(List<String> inputs) throws IOException
+	{
+		List<File> files = new ArrayList<>();
+		HashSet<String> seen = new HashSet<>();
+		for (String input : inputs)
+		{
+			List<File> matched;
+			if (isGlob(input))
+				matched = matchGlob(input);
+			else
+			{
+				File file = new File(input);
+				if (file.isDirectory())
+				{
+					File[] contents = file.listFiles(File::isFile);
+					if (contents == null)
+						throw new IOException("Cannot list directory " + file);
+					Arrays.sort(contents);
+					matched = Arrays.asList(contents);
+				}
+				else if (file.isFile())
+					matched = Arrays.asList(file);
+				else
+					throw new IOException("No such input file: " + input);
+			}
+
+			for (File file : matched)
+			{
+				if (seen.add(file.getCanonicalPath()))
+					files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private static boolean isGlob(String input)
+	{
+		return input.indexOf('*') >= 0 || input.indexOf('?') >= 0 || input.indexOf('[') >= 0
+				|| input.indexOf('{') >= 0;
+	}
+
+	/** Returns every regular file matching the glob, searching from the longest
+	 * leading part of it that has no wildcards
+	 */
+	private static List<File> matchGlob(String glob) throws IOException
+	{
+		String normalized = glob.replace(File.separatorChar, '/');
+		int firstWildcard = normalized.length();
+		for (char c : new char[] {'*', '?', '[', '{'})
+		{
+			int i = normalized.indexOf(c);
+			if (i >= 0)
+				firstWildcard = Math.min(firstWildcard, i);
+		}
+		int lastSlash = normalized.lastIndexOf('/', firstWildcard);
+		Path base = Paths.get(lastSlash < 0 ? "." : (lastSlash == 0 ? "/" : normalized.substring(0, lastSlash)));
+		String pattern = normalized.substring(lastSlash + 1);
+		if (!Files.isDirectory(base))
+			return new ArrayList<>();
+
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+		try (Stream<Path> paths = Files.walk(base, depth))
+		{
+			return paths.filter(Files::isRegularFile)
+					.filter(path -> matcher.matches(base.relativize(path)))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/** Names each file's output after the file, adding -1, -2, ... where two files share a name **/
+	private static String[] outputNames(List<File> files)
+	{
+		String[] names = new String[files.size()];
+		HashSet<String> used = new HashSet<>();
+		for (int i = 0; i < files.size(); i++)
+		{
+			String name = files.get(i).getName();
+			String unique = name;
+			for (int n = 1; !used.add(unique); n++)
+				unique = name + "-" + n;
+			names[i] = unique;
+		}
+		return names;
+	}
+}
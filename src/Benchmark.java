@@ -0,0 +1,274 @@
+/**Benchmarks each stage of the pipeline separately on a synthetic contact file:
+ * ingest (sequential, sharded and gzipped), probability computation, chi squared
+ * fitting, output and drawing durations from the alias tables (one draw per record),
+ * plus the original Scanner and TreeSet ingest as a baseline to compare against.
+ * Each stage is warmed up, then timed over several iterations, and reports
+ * throughput, bytes allocated and garbage collection time per iteration.
+ * Allocation is only counted for threads alive at the end of a stage, so the
+ * parallel stages all run on one pool that lives as long as the benchmark.
+ * The synthetic file comes from InteractionGenerator, with the same seed every run.
+ * Usage: java Benchmark [records] [individuals] [iterations]
+ *        defaults are 1000000 records, 1000 individuals and 5 iterations
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SortedSet;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+public class Benchmark
+{
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final long SEED = 42;
+
+	/** One stage of the pipeline, run once per iteration **/
+	private interface Stage
+	{
+		void run() throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		long records = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int individuals = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File contactFile = File.createTempFile("contacts", ".txt");
+		contactFile.deleteOnExit();
+		int contacts = (int) Math.max(1, records / individuals);
+		records = (long) contacts * individuals;
+		InteractionGenerator.writeContactFile(contactFile, individuals, contacts, SEED,
+				InteractionGenerator.DurationModel.GEOMETRIC);
+		System.out.println("Synthetic file: " + records + " records, " + individuals + " individuals, "
+				+ contactFile.length() + " bytes");
+		System.out.println("stage, ms/iteration, records/s, MB allocated/iteration, gc ms/iteration");
+
+		IndividualIndex input = Runner.readInput(contactFile);
+		InteractionPair[] pairs = input.toArray();
+		double[] sink = new double[1]; //keeps results alive so they can't be optimized away
+
+		measure("ingest", records, iterations, () -> Runner.readInput(contactFile));
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "benchmark");
+			thread.setDaemon(true); //so a failed stage doesn't leave the JVM running
+			return thread;
+		});
+		measure("ingest-sharded", records, iterations, () -> ShardedIngest.read(contactFile, threads, pool));
+		File gzipFile = gzip(contactFile);
+		measure("ingest-gzip", records, iterations, () -> GzipIngest.read(gzipFile, 1, pool));
+		measure("ingest-gzip-parallel", records, iterations, () -> GzipIngest.read(gzipFile, 
+				Math.max(1, threads - 1), pool));
+		if (records <= 1000000) //the baseline is too slow to be worth running on anything larger
+			measure("ingest-baseline", records, iterations, () -> readInputBaseline(contactFile));
+		measure("probability", records, iterations, () -> {
+			for (int i = 0; i < pairs.length; i++)
+			{
+				InteractionPair pair = pairs[i];
+				pair.setInteractionsProbabilities();
+				pair.getHistogram().forEach((duration, count) -> sink[0] += pair.getProbability(duration));
+			}
+		});
+		measure("chi-squared", records, iterations, () -> {
+			for (int i = 0; i < pairs.length; i++)
+			{
+				ChiSquaredResult result = pairs[i].runChiSquaredTest();
+				if (result != null)
+					sink[0] += result.getPValue();
+			}
+		});
+		measure("output", records, iterations, () -> {
+			CsvWriter writer = new CsvWriter(Channels.newChannel(new OutputStream()
+			{
+				@Override
+				public void write(int b)
+				{
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+				{
+				}
+			}));
+			writer.writeAll(pairs);
+			writer.close();
+		});
+		DurationSampler sampler = DurationSampler.build(input);
+		long draws = records;
+		if (sampler.size() > 0) //nobody to draw for
+		{
+			measure("sampling", records, iterations, () -> {
+				SplittableRandom random = new SplittableRandom(SEED);
+				long sum = 0;
+				for (long i = 0; i < draws; i++)
+					sum += sampler.sample((int) (i % sampler.size()), random);
+				sink[0] += sum;
+			});
+		}
+		pool.shutdown();
+		if (sink[0] == 42) //never true; just uses sink
+			System.out.println();
+	}
+
+	/** Runs stage WARMUP_ITERATIONS times untimed, then iterations times timed, and prints the averages **/
+	private static void measure(String name, long records, int iterations, Stage stage) throws IOException
+	{
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			stage.run();
+
+		long allocatedBefore = allocatedBytes();
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			stage.run();
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		long gc = gcMillis() - gcBefore;
+
+		double msPerIteration = elapsed / 1e6 / iterations;
+		double recordsPerSecond = records * iterations / (elapsed / 1e9);
+		System.out.printf("%s, %.2f, %.0f, %.2f, %.2f%n", name, msPerIteration, recordsPerSecond,
+				allocated / 1e6 / iterations, (double) gc / iterations);
+	}
+
+	/** Writes a gzipped copy of file to a temporary file **/
+	private static File gzip(File file) throws IOException
+	{
+		File gzipFile = File.createTempFile("contacts", ".txt.gz");
+		gzipFile.deleteOnExit();
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile), 1 << 16);
+		try
+		{
+			Files.copy(file.toPath(), out);
+		}
+		finally
+		{
+			out.close();
+		}
+		return gzipFile;
+	}
+
+	/** Returns the bytes allocated so far by every live thread, or 0 if the JVM can't tell us **/
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+		long[] bytes = sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds());
+		long total = 0;
+		for (int i = 0; i < bytes.length; i++)
+		{
+			if (bytes[i] > 0)
+				total += bytes[i];
+		}
+		return total;
+	}
+
+	/** Returns the time spent in garbage collection so far **/
+	private static long gcMillis()
+	{
+		long total = 0;
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean collector : collectors)
+			total += Math.max(0, collector.getCollectionTime());
+		return total;
+	}
+
+	/** The original Runner.readInput: a Scanner per line, a TreeSet of individuals
+	 * and a TreeSet of Interactions per individual. Kept as a baseline
+	 */
+	private static TreeSet<BaselinePair> readInputBaseline(File inputFile) throws FileNotFoundException
+	{
+		TreeSet<BaselinePair> input = new TreeSet<>();
+		Scanner lineScanner = new Scanner(inputFile);
+		while (lineScanner.hasNext())
+		{
+			String line = lineScanner.nextLine();
+			Scanner tokens = new Scanner(line);
+			int id = tokens.nextInt();
+			tokens.next();
+			int duration = tokens.nextInt();
+			tokens.close();
+
+			BaselinePair maybeExists = new BaselinePair(id);
+			if (input.contains(maybeExists))
+			{
+				SortedSet<BaselinePair> thisInteractionSet = input.subSet(maybeExists, new BaselinePair(id + 1));
+				BaselinePair thisInteraction = thisInteractionSet.first();
+				thisInteraction.addInteraction(duration);
+				input.remove(thisInteraction);
+				input.add(thisInteraction);
+			}
+			else
+			{
+				maybeExists.addInteraction(duration);
+				input.add(maybeExists);
+			}
+		}
+		lineScanner.close();
+
+		for (BaselinePair pair : input)
+			Interaction.setProbabilites(pair.interactions);
+		return input;
+	}
+
+	/** The original InteractionPair's storage: a TreeSet of Interactions, re-inserted on every update **/
+	private static class BaselinePair implements Comparable<BaselinePair>
+	{
+		final int id;
+		final TreeSet<Interaction> interactions = new TreeSet<>();
+
+		BaselinePair(int id)
+		{
+			this.id = id;
+		}
+
+		void addInteraction(int interactionDuration)
+		{
+			Interaction inter = new Interaction(interactionDuration);
+			if (interactions.contains(inter))
+			{
+				Interaction exists = interactions.subSet(inter, new Interaction(interactionDuration + 1)).first();
+				exists.incrementInteractions();
+				interactions.remove(inter);
+				interactions.add(exists);
+			}
+			else
+				interactions.add(inter);
+		}
+
+		@Override
+		public int compareTo(BaselinePair other)
+		{
+			return Integer.compare(id, other.id);
+		}
+	}
+}
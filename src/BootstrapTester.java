@@ -0,0 +1,338 @@
+/**Tests each individual's fit to a geometric distribution by parametric bootstrap
+ * rather than the chi squared approximation, so individuals with too few CPIs or too
+ * many sparse bins for InteractionPair.runChiSquaredTest() can still be tested. For
+ * each individual, p is fit to every interaction (no OBSERVATION_THRESHOLD), and the
+ * statistic is Pearson's chi squared over bins k = 1 .. tailStart - 1 plus one bin for
+ * k >= tailStart. Then samples of the same size are drawn from Geometric(p), p is refit
+ * to each, and the p-value is the share of samples whose statistic is at least the
+ * observed one.
+ * Replicates are split into blocks, and blocks of every individual run concurrently.
+ * Each block has its own SplittableRandom, split off a random seeded with the seed in
+ * block order before any work starts, so results depend only on the seed.
+ * A replicate is drawn a bin at a time rather than an interaction at a time. The
+ * geometric is memoryless, so the count of bin k given those left after bins
+ * 1 .. k - 1 is Binomial(left, p), and the trials of the m interactions in the tail are
+ * m * tailStart plus NegativeBinomial(m, p) failures. Once fewer interactions are left
+ * than the bins still to walk would cost, each is drawn on its own instead, so a
+ * replicate costs O(min(n, tailStart log n)) draws rather than always O(n). Counts go
+ * straight into a per-thread array; nothing is allocated per replicate
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+public class BootstrapTester
+{
+	public static final int DEFAULT_REPLICATES = 1000;
+	public static final long DEFAULT_SEED = 20201002L;
+	public static final int MIN_SAMPLE_SIZE = 10; //the fewest CPIs an individual needs to be tested
+	private static final int BLOCK_SIZE = 256; //replicates run together as one task
+	private static final double MIN_TAIL_EXPECTED = 1; //the tail bin starts where fewer than this are expected
+	private static final int MIN_TAIL_START = 3; //at least two single bins and the tail, for one degree of freedom
+	private static final int MAX_TAIL_START = 1 << 12; //bounds the bins when p is tiny
+	private static final int DIRECT_DRAWS = 16; //binomials and Poissons this small are drawn directly
+	private static final int BIN_COST = 32; //about how many single draws one bin's binomial costs
+	//scratch counts for drawing samples into, one per thread
+	private static final ThreadLocal<int[]> countScratch = ThreadLocal.withInitial(() -> new int[64]);
+
+	/** Tests every individual in input with DEFAULT_REPLICATES replicates and DEFAULT_SEED
+	 * @see #run(IndividualIndex, boolean, int, long, double[], PrintStream)
+	 */
+	public static ChiSquaredSummary run(IndividualIndex input, boolean parallel, double[] levels, PrintStream out)
+	{
+		return run(input, parallel, DEFAULT_REPLICATES, DEFAULT_SEED, levels, out);
+	}
+
+	/** Tests every individual in input that has at least MIN_SAMPLE_SIZE interactions
+	 * @param input the individuals to test
+	 * @param parallel true to run individuals and blocks of replicates concurrently on every core
+	 * @param replicates the number of samples to draw per individual
+	 * @param seed the seed every sample is drawn from
+	 * @param levels the significance levels to count individuals at
+	 * @param out where to print each individual's result, or null to not print them
+	 * @return the totals over every individual that was tested
+	 */
+	public static ChiSquaredSummary run(IndividualIndex input, boolean parallel, int replicates, long seed,
+			double[] levels, PrintStream out)
+	{
+		if (replicates < 1)
+			throw new IllegalArgumentException("Need at least one replicate, not " + replicates);
+		InteractionPair[] pairs = input.toSortedArray();
+		int n = pairs.length;
+
+		//fit each individual and find the statistic of its own sample
+		long[] sampleSizes = new long[n];
+		double[] estimatedP = new double[n];
+		int[] tailStarts = new int[n];
+		double[] statistics = new double[n];
+		IntStream individuals = IntStream.range(0, n);
+		if (parallel)
+			individuals = individuals.parallel();
+		individuals.forEach(i -> fit(pairs[i], i, sampleSizes, estimatedP, tailStarts, statistics));
+
+		//lay out the blocks of replicates of every testable individual, one random each
+		int blocksPerIndividual = (replicates + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int tested = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (tailStarts[i] > 0)
+				tested++;
+		}
+		int[] blockIndividual = new int[tested * blocksPerIndividual];
+		SplittableRandom[] randoms = new SplittableRandom[blockIndividual.length];
+		SplittableRandom root = new SplittableRandom(seed);
+		int block = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (tailStarts[i] == 0)
+				continue;
+			for (int b = 0; b < blocksPerIndividual; b++)
+			{
+				blockIndividual[block] = i;
+				randoms[block] = root.split();
+				block++;
+			}
+		}
+
+		AtomicIntegerArray exceeded = new AtomicIntegerArray(n); //replicates at least as extreme as the sample
+		IntStream blocks = IntStream.range(0, blockIndividual.length);
+		if (parallel)
+			blocks = blocks.parallel();
+		blocks.forEach(b -> {
+			int i = blockIndividual[b];
+			int first = (b % blocksPerIndividual) * BLOCK_SIZE;
+			int count = Math.min(BLOCK_SIZE, replicates - first);
+			int extreme = resample(randoms[b], count, sampleSizes[i], estimatedP[i], tailStarts[i], statistics[i]);
+			exceeded.addAndGet(i, extreme);
+		});
+
+		//the summary counts individuals with more than this many CPIs
+		ChiSquaredTally tally = new ChiSquaredTally(levels, MIN_SAMPLE_SIZE - 1);
+		for (int i = 0; i < n; i++)
+		{
+			if (tailStarts[i] == 0)
+				continue;
+			double pValue = (exceeded.get(i) + 1.0) / (replicates + 1.0);
+			ChiSquaredResult result = new ChiSquaredResult(pairs[i].getID(), statistics[i], tailStarts[i] - 2, 
+					pValue, true);
+			tally.record(result);
+			if (out != null)
+				out.println(result.toString());
+		}
+		return tally.summarize();
+	}
+
+	/** Fits pair, storing its sample size, p, tail start and statistic at index i.
+	 * Leaves tailStarts[i] at 0 if pair cannot be tested
+	 */
+	private static void fit(InteractionPair pair, int i, long[] sampleSizes, double[] estimatedP, 
+			int[] tailStarts, double[] statistics)
+	{
+		long sampleSize = pair.getTotalInteractions();
+		if (sampleSize < MIN_SAMPLE_SIZE)
+			return;
+		long[] numTrials = new long[1];
+		pair.getHistogram().forEach((duration, count) -> numTrials[0] += (long) count * (duration + 1));
+		double p = (double) sampleSize / numTrials[0];
+		if (p >= 1) //every interaction has k = 1; there is nothing to test
+			return;
+
+		int tailStart = tailStart(sampleSize, p);
+		int[] counts = new int[tailStart + 1];
+		pair.getHistogram().forEach((duration, count) -> counts[Math.min(duration + 1, tailStart)] += count);
+		sampleSizes[i] = sampleSize;
+		estimatedP[i] = p;
+		tailStarts[i] = tailStart;
+		statistics[i] = statistic(counts, tailStart, sampleSize, p);
+	}
+
+	/** Draws replicates samples from Geometric(p), refitting p to each
+	 * @return the number of samples whose statistic was at least observedStatistic
+	 */
+	private static int resample(SplittableRandom random, int replicates, long sampleSize, double p, int tailStart,
+			double observedStatistic)
+	{
+		int[] counts = countScratch.get();
+		if (counts.length < tailStart + 1)
+		{
+			counts = new int[Math.max(tailStart + 1, counts.length * 2)];
+			countScratch.set(counts);
+		}
+		double failureScale = (1 - p) / p; //NegativeBinomial(m, p) = Poisson(Gamma(m) * failureScale)
+		double logOneMinusP = Math.log1p(-p);
+
+		int extreme = 0;
+		for (int r = 0; r < replicates; r++)
+		{
+			Arrays.fill(counts, 0, tailStart + 1, 0);
+			long left = sampleSize;
+			long numTrials = 0;
+			int k = 1;
+			for (; k < tailStart && left > BIN_COST * (tailStart - k); k++)
+			{
+				long count = binomial(random, left, p);
+				counts[k] = (int) count;
+				numTrials += count * k;
+				left -= count;
+			}
+			if (k == tailStart)
+			{
+				counts[tailStart] = (int) left;
+				//each of the tail's interactions is tailStart - 1 trials plus a fresh Geometric(p)
+				if (left > 0)
+					numTrials += left * tailStart + poisson(random, gamma(random, left) * failureScale);
+			}
+			else
+			{
+				//few enough are left that drawing each one's trials beats walking the rest of the bins
+				for (long s = 0; s < left; s++)
+				{
+					//inverse transform: k + floor(ln(u) / ln(1 - p)) trials, for u in (0, 1]
+					long trials = k + (long) (Math.log(1.0 - random.nextDouble()) / logOneMinusP);
+					numTrials += trials;
+					counts[(int) Math.min(trials, tailStart)]++;
+				}
+			}
+			double refitP = (double) sampleSize / numTrials;
+			if (statistic(counts, tailStart, sampleSize, refitP) >= observedStatistic)
+				extreme++;
+		}
+		return extreme;
+	}
+
+	/** Draws from Binomial(n, p). Large n are split in two around a Beta order statistic
+	 * until few enough trials are left to draw one by one (Knuth, TAOCP 3.4.1), so this
+	 * takes O(log n) draws
+	 */
+	static long binomial(SplittableRandom random, long n, double p)
+	{
+		long x = 0;
+		while (n > DIRECT_DRAWS)
+		{
+			long a = 1 + (n / 2);
+			long b = n + 1 - a;
+			double ga = gamma(random, a);
+			double y = ga / (ga + gamma(random, b)); //the a-th smallest of n uniforms
+			if (y >= p)
+			{
+				n = a - 1;
+				p = p / y;
+			}
+			else
+			{
+				x += a;
+				n = b - 1;
+				p = (p - y) / (1 - y);
+			}
+		}
+		for (long i = 0; i < n; i++)
+		{
+			if (random.nextDouble() < p)
+				x++;
+		}
+		return x;
+	}
+
+	/** Draws from Poisson(mean). Large means are cut down by a Gamma draw, handing what
+	 * is left to binomial() (Knuth, TAOCP 3.4.1), so this takes O(log mean) draws
+	 */
+	static long poisson(SplittableRandom random, double mean)
+	{
+		long x = 0;
+		while (mean > DIRECT_DRAWS)
+		{
+			long m = (long) (mean * 7 / 8);
+			double g = gamma(random, m);
+			if (g >= mean)
+				return x + binomial(random, m - 1, mean / g);
+			x += m;
+			mean -= g;
+		}
+		//multiply uniforms until the product drops below e^-mean
+		double limit = Math.exp(-mean);
+		double product = random.nextDouble();
+		while (product > limit)
+		{
+			x++;
+			product *= random.nextDouble();
+		}
+		return x;
+	}
+
+	/** Draws from Gamma(shape, 1) for shape >= 1 (Marsaglia and Tsang) **/
+	static double gamma(SplittableRandom random, double shape)
+	{
+		double d = shape - (1.0 / 3);
+		double c = 1 / Math.sqrt(9 * d);
+		while (true)
+		{
+			double z = gaussian(random);
+			double v = 1 + (c * z);
+			if (v <= 0)
+				continue;
+			v = v * v * v;
+			double u = 1.0 - random.nextDouble(); //in (0, 1], so the log is finite
+			if (Math.log(u) < (0.5 * z * z) + d - (d * v) + (d * Math.log(v)))
+				return d * v;
+		}
+	}
+
+	/** Draws from the standard normal (Box-Muller) **/
+	private static double gaussian(SplittableRandom random)
+	{
+		double u = 1.0 - random.nextDouble();
+		return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+	/** Returns Pearson's chi squared statistic of counts against Geometric(p), where
+	 * counts[k] is the number of interactions with k trials for k < tailStart, and
+	 * counts[tailStart] is the number with tailStart or more
+	 */
+	static double statistic(int[] counts, int tailStart, long sampleSize, double p)
+	{
+		double oneMinusP = 1.0 - p;
+		double oneMinusToTheK = 1.0; //(1-p)^(k - 1)
+		double chiSq = 0;
+		for (int k = 1; k < tailStart; k++)
+		{
+			chiSq += term(counts[k], oneMinusToTheK * p * sampleSize);
+			oneMinusToTheK *= oneMinusP;
+		}
+		return chiSq + term(counts[tailStart], oneMinusToTheK * sampleSize); //P(K >= tailStart) = (1-p)^(tailStart - 1)
+	}
+
+	/** Returns the first k of the tail bin: where fewer than MIN_TAIL_EXPECTED
+	 * interactions of k or more trials are expected, within [MIN_TAIL_START, MAX_TAIL_START]
+	 */
+	static int tailStart(long sampleSize, double p)
+	{
+		//solve sampleSize * (1-p)^(k - 1) = MIN_TAIL_EXPECTED for k
+		double k = 1 + Math.ceil(Math.log(MIN_TAIL_EXPECTED / sampleSize) / Math.log1p(-p));
+		return (int) Math.max(MIN_TAIL_START, Math.min(MAX_TAIL_START, k));
+	}
+
+	/** Returns one bin's contribution to the chi squared statistic **/
+	private static double term(int observed, double ideal)
+	{
+		if (ideal <= 0) //only possible when the refit p is 1; any count past k = 1 is then impossible
+			return observed == 0 ? 0 : Double.POSITIVE_INFINITY;
+		double diff = observed - ideal;
+		return (diff * diff) / ideal;
+	}
+}
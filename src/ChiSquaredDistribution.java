@@ -0,0 +1,167 @@
+/**The Chi Squared distribution, used to find p-values and critical values for
+ * Pearson's Chi Squared test with any number of degrees of freedom. The p-value is
+ * the regularized upper incomplete gamma function Q(df / 2, chiSq / 2), evaluated
+ * by its series or continued fraction, whichever converges faster.
+ * Critical values are found by bisection and memoized per (df, alpha)
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChiSquaredDistribution
+{
+	private static final int MAX_ITERATIONS = 1000;
+	private static final double EPSILON = 1e-15; //relative accuracy of the gamma function evaluations
+	private static final double FPMIN = Double.MIN_NORMAL / EPSILON; //stands in for 0 in the continued fraction
+	private static final double[] LANCZOS = { //coefficients for logGamma, g = 7
+		0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+		771.32342877765313, -176.61502916214059, 12.507343278686905,
+		-0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+
+	//critical values found so far, keyed by alpha then by degrees of freedom
+	private static final ConcurrentHashMap<Double, ConcurrentHashMap<Integer, Double>> criticalValues =
+			new ConcurrentHashMap<>();
+
+	/** Returns the probability of seeing a chi squared value at least this large
+	 * if the null hypothesis holds
+	 * @param chiSq the chi squared value
+	 * @param degreesOfFreedom the degrees of freedom; must be at least 1
+	 * @return the p-value, in [0, 1]
+	 */
+	public static double pValue(double chiSq, int degreesOfFreedom)
+	{
+		if (degreesOfFreedom < 1)
+			throw new IllegalArgumentException("Degrees of freedom must be at least 1: " + degreesOfFreedom);
+		return regularizedGammaQ(degreesOfFreedom / 2.0, chiSq / 2.0);
+	}
+
+	/** Returns the chi squared value at which the null hypothesis is rejected at
+	 * significance level alpha. A test does not reject when chiSq < criticalValue
+	 * @param degreesOfFreedom the degrees of freedom; must be at least 1
+	 * @param alpha the significance level, in (0, 1)
+	 */
+	public static double criticalValue(int degreesOfFreedom, double alpha)
+	{
+		if (degreesOfFreedom < 1)
+			throw new IllegalArgumentException("Degrees of freedom must be at least 1: " + degreesOfFreedom);
+		if (!(alpha > 0 && alpha < 1))
+			throw new IllegalArgumentException("Significance level must be in (0, 1): " + alpha);
+
+		ConcurrentHashMap<Integer, Double> forAlpha = criticalValues.get(alpha);
+		if (forAlpha == null)
+		{
+			criticalValues.putIfAbsent(alpha, new ConcurrentHashMap<>());
+			forAlpha = criticalValues.get(alpha);
+		}
+		Double cached = forAlpha.get(degreesOfFreedom);
+		if (cached != null)
+			return cached;
+
+		double value = findCriticalValue(degreesOfFreedom, alpha);
+		forAlpha.put(degreesOfFreedom, value);
+		return value;
+	}
+
+	/** Bisects on pValue(), which falls as chiSq grows **/
+	private static double findCriticalValue(int degreesOfFreedom, double alpha)
+	{
+		double low = 0;
+		double high = degreesOfFreedom + 10 * Math.sqrt(2.0 * degreesOfFreedom) + 10;
+		while (pValue(high, degreesOfFreedom) > alpha)
+		{
+			low = high;
+			high *= 2;
+		}
+
+		for (int i = 0; i < MAX_ITERATIONS && high - low > EPSILON * high; i++)
+		{
+			double mid = (low + high) / 2;
+			if (pValue(mid, degreesOfFreedom) > alpha)
+				low = mid;
+			else
+				high = mid;
+		}
+		return (low + high) / 2;
+	}
+
+	/** Returns Q(a, x) = Gamma(a, x) / Gamma(a), the regularized upper incomplete gamma function **/
+	static double regularizedGammaQ(double a, double x)
+	{
+		if (x <= 0)
+			return 1;
+		if (x < a + 1)
+			return 1 - gammaSeries(a, x);
+		return gammaContinuedFraction(a, x);
+	}
+
+	/** Returns P(a, x) by its series expansion; converges quickly for x < a + 1 **/
+	private static double gammaSeries(double a, double x)
+	{
+		double term = 1 / a;
+		double sum = term;
+		double denominator = a;
+		for (int n = 0; n < MAX_ITERATIONS; n++)
+		{
+			denominator++;
+			term *= x / denominator;
+			sum += term;
+			if (Math.abs(term) < Math.abs(sum) * EPSILON)
+				break;
+		}
+		return sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+	}
+
+	/** Returns Q(a, x) by its continued fraction (modified Lentz's method); converges
+	 * quickly for x >= a + 1
+	 */
+	private static double gammaContinuedFraction(double a, double x)
+	{
+		double b = x + 1 - a;
+		double c = 1 / FPMIN;
+		double d = 1 / b;
+		double h = d;
+		for (int i = 1; i < MAX_ITERATIONS; i++)
+		{
+			double an = -i * (i - a);
+			b += 2;
+			d = an * d + b;
+			if (Math.abs(d) < FPMIN)
+				d = FPMIN;
+			c = b + an / c;
+			if (Math.abs(c) < FPMIN)
+				c = FPMIN;
+			d = 1 / d;
+			double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1) < EPSILON)
+				break;
+		}
+		return Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+	}
+
+	/** Returns ln(Gamma(x)) for x > 0, using the Lanczos approximation **/
+	static double logGamma(double x)
+	{
+		if (x < 0.5) //reflection formula
+			return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+
+		x -= 1;
+		double sum = LANCZOS[0];
+		for (int i = 1; i < LANCZOS.length; i++)
+			sum += LANCZOS[i] / (x + i);
+		double t = x + 7.5;
+		return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+	}
+}
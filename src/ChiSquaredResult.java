@@ -0,0 +1,82 @@
+/**The outcome of Pearson's Chi Squared test for one individual. Immutable, so
+ * results can be handed between threads freely
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class ChiSquaredResult
+{
+	private final int id; //the id of the individual tested
+	private final double chiSquared;
+	private final int degreesOfFreedom;
+	private final double pValue;
+	private final boolean empirical; //true if pValue came from resampling rather than the chi squared distribution
+
+	public ChiSquaredResult(int id, double chiSquared, int degreesOfFreedom, double pValue)
+	{
+		this(id, chiSquared, degreesOfFreedom, pValue, false);
+	}
+
+	public ChiSquaredResult(int id, double chiSquared, int degreesOfFreedom, double pValue, boolean empirical)
+	{
+		this.id = id;
+		this.chiSquared = chiSquared;
+		this.degreesOfFreedom = degreesOfFreedom;
+		this.pValue = pValue;
+		this.empirical = empirical;
+	}
+
+	public int getID()
+	{
+		return id;
+	}
+
+	public double getChiSquared()
+	{
+		return chiSquared;
+	}
+
+	public int getDegreesOfFreedom()
+	{
+		return degreesOfFreedom;
+	}
+
+	public double getPValue()
+	{
+		return pValue;
+	}
+
+	/** Returns true if the p-value was found by resampling; see BootstrapTester **/
+	public boolean isEmpirical()
+	{
+		return empirical;
+	}
+
+	/** Returns true if the null hypothesis is not rejected at significance level alpha **/
+	public boolean notRejected(double alpha)
+	{
+		if (empirical) //there is no critical value to compare against, only the p-value
+			return pValue > alpha;
+		return chiSquared < ChiSquaredDistribution.criticalValue(degreesOfFreedom, alpha);
+	}
+
+	@Override
+	public String toString()
+	{
+		String result = "id " + id + " Chi sq: " + chiSquared + " degrees of freedom: " + degreesOfFreedom;
+		if (empirical)
+			result += " bootstrap p-value: " + pValue;
+		return result;
+	}
+}
@@ -0,0 +1,79 @@
+/**Totals of the Chi Squared tests run over a set of individuals. Immutable; made
+ * by ChiSquaredTally once every test has finished
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+
+public class ChiSquaredSummary
+{
+	public static final long DEFAULT_MIN_SAMPLE_SIZE = InteractionPair.MIN_SAMPLE_SIZE; //the CPIs InteractionPair.runChiSquaredTest() needs
+
+	private final long numberOfCPIs; //number of individuals with enough CPIs to be tested
+	private final long minSampleSize; //counted individuals had more than this many CPIs
+	private final double[] levels; //the significance levels tested at
+	private final long[] notRejected; //notRejected[i] = number of individuals who did not reject when P = levels[i]
+	private final long rejected; //number of individuals who rejected at every level
+
+	public ChiSquaredSummary(long numberOfCPIs, double[] levels, long[] notRejected, long rejected)
+	{
+		this(numberOfCPIs, DEFAULT_MIN_SAMPLE_SIZE, levels, notRejected, rejected);
+	}
+
+	public ChiSquaredSummary(long numberOfCPIs, long minSampleSize, double[] levels, long[] notRejected, long rejected)
+	{
+		this.numberOfCPIs = numberOfCPIs;
+		this.minSampleSize = minSampleSize;
+		this.levels = levels.clone();
+		this.notRejected = notRejected.clone();
+		this.rejected = rejected;
+	}
+
+	public long getNumberOfCPIs()
+	{
+		return numberOfCPIs;
+	}
+
+	public long getMinSampleSize()
+	{
+		return minSampleSize;
+	}
+
+	public double[] getLevels()
+	{
+		return levels.clone();
+	}
+
+	/** Returns the number of individuals who did not reject when P = getLevels()[level] **/
+	public long getNotRejected(int level)
+	{
+		return notRejected[level];
+	}
+
+	public long getRejected()
+	{
+		return rejected;
+	}
+
+	/** Prints the totals in the same form Runner always has **/
+	public void print(PrintStream out)
+	{
+		out.println("Number of individuals with > " + minSampleSize + " CPIs: " + numberOfCPIs);
+		out.println("Number of individuals who didn't reject H0:");
+		for (int i = 0; i < levels.length; i++)
+			out.println("P = " + levels[i] + ": " + notRejected[i]);
+		out.println("Number of individuals who rejected H0: " + rejected);
+	}
+}
@@ -0,0 +1,81 @@
+/**Thread safe counters for Chi Squared results. Each counter is a LongAdder, so
+ * many threads can record results at once without contending on a single field.
+ * An individual is counted as not rejected at every level whose critical value
+ * its chi squared value falls under, and as rejected if it falls under none
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class ChiSquaredTally
+{
+	/** The significance levels tested at unless others are given **/
+	public static final double[] DEFAULT_LEVELS = {0.001, 0.01, 0.05};
+
+	private final double[] levels;
+	private final long minSampleSize; //the summary counts individuals with more than this many CPIs
+	private final LongAdder numberOfCPIs = new LongAdder();
+	private final LongAdder[] notRejected; //notRejected[i] counts those who did not reject when P = levels[i]
+	private final LongAdder rejected = new LongAdder();
+
+	public ChiSquaredTally()
+	{
+		this(DEFAULT_LEVELS);
+	}
+
+	/** @param levels the significance levels to count at, each in (0, 1) **/
+	public ChiSquaredTally(double[] levels)
+	{
+		this(levels, ChiSquaredSummary.DEFAULT_MIN_SAMPLE_SIZE);
+	}
+
+	/** @param levels the significance levels to count at, each in (0, 1)
+	 * @param minSampleSize the summary says individuals had more than this many CPIs
+	 */
+	public ChiSquaredTally(double[] levels, long minSampleSize)
+	{
+		this.minSampleSize = minSampleSize;
+		this.levels = levels.clone();
+		notRejected = new LongAdder[levels.length];
+		for (int i = 0; i < levels.length; i++)
+			notRejected[i] = new LongAdder();
+	}
+
+	/** Counts result towards the totals. Safe to call from any thread **/
+	public void record(ChiSquaredResult result)
+	{
+		numberOfCPIs.increment();
+		boolean rejectedAll = true;
+		for (int i = 0; i < levels.length; i++)
+		{
+			if (result.notRejected(levels[i]))
+			{
+				notRejected[i].increment();
+				rejectedAll = false;
+			}
+		}
+		if (rejectedAll)
+			rejected.increment();
+	}
+
+	/** Returns the totals so far. Only exact once every record() call has returned **/
+	public ChiSquaredSummary summarize()
+	{
+		long[] counts = new long[levels.length];
+		for (int i = 0; i < levels.length; i++)
+			counts[i] = notRejected[i].sum();
+		return new ChiSquaredSummary(numberOfCPIs.sum(), minSampleSize, levels, counts, rejected.sum());
+	}
+}
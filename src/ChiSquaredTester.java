@@ -0,0 +1,83 @@
+/**Runs Pearson's Chi Squared test for every individual in a data set, either one
+ * after another or fanned out over the common fork join pool. Either way the
+ * results are printed in order of id and the totals are identical
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+import java.util.stream.IntStream;
+
+public class ChiSquaredTester
+{
+	/** Runs the test for every individual in input
+	 * @param input the individuals to test
+	 * @param parallel true to run the tests concurrently on every core
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 */
+	public static ChiSquaredSummary run(IndividualIndex input, boolean parallel)
+	{
+		return run(input, parallel, ChiSquaredTally.DEFAULT_LEVELS);
+	}
+
+	/** Runs the test for every individual in input
+	 * @param input the individuals to test
+	 * @param parallel true to run the tests concurrently on every core
+	 * @param levels the significance levels to count individuals at
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 */
+	public static ChiSquaredSummary run(IndividualIndex input, boolean parallel, double[] levels)
+	{
+		return run(input, parallel, levels, System.out);
+	}
+
+	/** Runs the test for every individual in input
+	 * @param input the individuals to test
+	 * @param parallel true to run the tests concurrently on every core
+	 * @param levels the significance levels to count individuals at
+	 * @param out where to print each individual's result, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 */
+	public static ChiSquaredSummary run(IndividualIndex input, boolean parallel, double[] levels, PrintStream out)
+	{
+		InteractionPair[] pairs = input.toSortedArray();
+		ChiSquaredResult[] results = new ChiSquaredResult[pairs.length];
+		ChiSquaredTally tally = new ChiSquaredTally(levels);
+
+		if (parallel)
+			IntStream.range(0, pairs.length).parallel().forEach(i -> test(pairs, results, tally, i));
+		else
+		{
+			for (int i = 0; i < pairs.length; i++)
+				test(pairs, results, tally, i);
+		}
+
+		for (int i = 0; out != null && i < results.length; i++)
+		{
+			if (results[i] != null)
+				out.println(results[i].toString());
+		}
+		return tally.summarize();
+	}
+
+	/** Tests pairs[i], storing the result (if any) in results[i] **/
+	private static void test(InteractionPair[] pairs, ChiSquaredResult[] results, ChiSquaredTally tally, int i)
+	{
+		ChiSquaredResult result = pairs[i].runChiSquaredTest();
+		if (result == null)
+			return;
+		results[i] = result;
+		tally.record(result);
+	}
+}
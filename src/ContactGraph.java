@@ -0,0 +1,401 @@
+/**The contact network as a compressed sparse row graph: each individual, their partners,
+ * and the histogram of interaction durations with each partner. Unlike readInput, this
+ * keeps the partner id. Ids are remapped to dense indexes 0 .. n-1 in order of id, so
+ * every array is indexed directly. Each partnership is stored once, as an edge with its
+ * own run of (duration, count) bins, and listed under both partners, in order of partner.
+ * Contact files usually record each contact twice, once from each side, and sometimes only
+ * once; so the count of each duration with a partner is the larger of the counts recorded
+ * from either side. Records of an individual with themself are ignored.
+ * Everything is in primitive arrays, and a neighbor scan reads consecutive slots
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+public class ContactGraph
+{
+	private static final int INITIAL_RECORDS = 1 << 16;
+
+	private final int[] ids; //ids[index] = the id of the individual with this dense index; sorted
+	private final int[] offsets; //index's neighbors are [offsets[index], offsets[index + 1]) of partners and edges
+	private final int[] partners; //the dense index of each neighbor
+	private final int[] edges; //the edge shared with each neighbor
+	private final int[] binStarts; //edge e's bins are [binStarts[e], binStarts[e + 1]) of the arrays below
+	private final int[] binDurations; //sorted within each edge
+	private final int[] binCounts;
+
+	private ContactGraph(int[] ids, int[] offsets, int[] partners, int[] edges, int[] binStarts,
+			int[] binDurations, int[] binCounts)
+	{
+		this.ids = ids;
+		this.offsets = offsets;
+		this.partners = partners;
+		this.edges = edges;
+		this.binStarts = binStarts;
+		this.binDurations = binDurations;
+		this.binCounts = binCounts;
+	}
+
+	/** Parses the input file into a graph, in one pass over the file
+	 *  PRECONDITION: the input file is in the format specified by paper
+	 *  "A high-resolution human contact network for infectious disease transmission"
+	 * @throws IOException in case the input file does not exist, cannot be read, or is malformed
+	 */
+	public static ContactGraph read(File inputFile) throws IOException
+	{
+		return read(inputFile, null);
+	}
+
+	/** Parses the input file into a graph and, in the same pass, adds each record's
+	 * duration to its individual in input, as Runner.readInput does, so the histograms
+	 * need no pass over the file of their own
+	 * @param input the index to add every record to, or null to only build the graph
+	 * @throws IOException in case the input file does not exist, cannot be read, or is malformed
+	 */
+	public static ContactGraph read(File inputFile, IndividualIndex input) throws IOException
+	{
+		long start = PipelineMetrics.start();
+		Records records = new Records();
+		ContactParser.ContactHandler handler = records;
+		if (input != null)
+		{
+			handler = (id, partner, duration) -> {
+				records.contact(id, partner, duration);
+				input.getOrCreate(id).addInteraction(duration);
+			};
+		}
+		ContactParser.parse(inputFile, handler);
+		ContactGraph graph = build(records);
+		PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, start);
+		return graph;
+	}
+
+	/** Returns the number of individuals **/
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/** Returns the number of distinct partnerships **/
+	public int getEdgeCount()
+	{
+		return binStarts.length - 1;
+	}
+
+	/** Returns the dense index of individual id, or -1 if they had no contacts **/
+	public int indexOf(int id)
+	{
+		int index = Arrays.binarySearch(ids, id);
+		return index < 0 ? -1 : index;
+	}
+
+	public int getID(int index)
+	{
+		return ids[index];
+	}
+
+	/** Returns the number of partners of the individual at index **/
+	public int getDegree(int index)
+	{
+		return offsets[index + 1] - offsets[index];
+	}
+
+	/** Returns the position of index's first neighbor; neighbors run from here to
+	 * getNeighborEnd(index), in order of partner
+	 */
+	public int getNeighborStart(int index)
+	{
+		return offsets[index];
+	}
+
+	public int getNeighborEnd(int index)
+	{
+		return offsets[index + 1];
+	}
+
+	/** Returns the dense index of the partner at neighbor position k **/
+	public int getPartner(int k)
+	{
+		return partners[k];
+	}
+
+	/** Returns the edge to the partner at neighbor position k **/
+	public int getEdge(int k)
+	{
+		return edges[k];
+	}
+
+	/** Returns the edge between the individuals at dense indexes a and b, or -1 if
+	 * they never had contact
+	 */
+	public int findEdge(int a, int b)
+	{
+		int k = Arrays.binarySearch(partners, offsets[a], offsets[a + 1], b);
+		return k < 0 ? -1 : edges[k];
+	}
+
+	/** Returns the number of interactions of this duration on edge **/
+	public int getCount(int edge, int duration)
+	{
+		int bin = Arrays.binarySearch(binDurations, binStarts[edge], binStarts[edge + 1], duration);
+		return bin < 0 ? 0 : binCounts[bin];
+	}
+
+	/** Returns the number of interactions of this duration between individuals idA
+	 * and idB, or 0 if they never had contact
+	 */
+	public int getCount(int idA, int idB, int duration)
+	{
+		int a = indexOf(idA);
+		int b = indexOf(idB);
+		if (a < 0 || b < 0)
+			return 0;
+		int edge = findEdge(a, b);
+		return edge < 0 ? 0 : getCount(edge, duration);
+	}
+
+	/** Returns the number of interactions on edge **/
+	public long getTotal(int edge)
+	{
+		long total = 0;
+		for (int bin = binStarts[edge]; bin < binStarts[edge + 1]; bin++)
+			total += binCounts[bin];
+		return total;
+	}
+
+	/** Visits every bin of edge in order of increasing duration **/
+	public void forEach(int edge, DurationHistogram.BinVisitor visitor)
+	{
+		for (int bin = binStarts[edge]; bin < binStarts[edge + 1]; bin++)
+			visitor.bin(binDurations[bin], binCounts[bin]);
+	}
+
+	/** Writes every partnership as rows of "id, partner id, duration, count", with
+	 * id < partner id, in order of id, partner id and duration
+	 * @throws IOException if the output cannot be written
+	 */
+	public void write(File outputFile) throws IOException
+	{
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+		try
+		{
+			for (int a = 0; a < ids.length; a++)
+			{
+				for (int k = offsets[a]; k < offsets[a + 1]; k++)
+				{
+					int b = partners[k];
+					if (b < a) //each partnership once, from its lower side
+						continue;
+					for (int bin = binStarts[edges[k]]; bin < binStarts[edges[k] + 1]; bin++)
+						out.println(ids[a] + ", " + ids[b] + ", " + binDurations[bin] + ", " + binCounts[bin]);
+				}
+			}
+			if (out.checkError())
+				throw new IOException("Could not write " + outputFile);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/** Builds the graph from the raw records **/
+	private static ContactGraph build(Records records)
+	{
+		int n = records.size;
+		int[] ids = records.distinctIDs();
+		Remap remap = new Remap(ids);
+
+		//bucket each record under its lower dense index, packing the rest as
+		//(higher index << 32 | duration << 1 | recorded from the higher side)
+		int[] bucketStarts = new int[ids.length + 1];
+		int[] lows = new int[n];
+		for (int r = 0; r < n; r++)
+		{
+			if (records.ids[r] == records.partners[r])
+			{
+				lows[r] = -1;
+				continue;
+			}
+			int a = remap.get(records.ids[r]);
+			int b = remap.get(records.partners[r]);
+			lows[r] = Math.min(a, b);
+			bucketStarts[lows[r] + 1]++;
+		}
+		for (int i = 0; i < ids.length; i++)
+			bucketStarts[i + 1] += bucketStarts[i];
+		long[] packed = new long[bucketStarts[ids.length]];
+		int[] fill = Arrays.copyOf(bucketStarts, ids.length);
+		for (int r = 0; r < n; r++)
+		{
+			if (lows[r] < 0)
+				continue;
+			int a = remap.get(records.ids[r]);
+			int b = remap.get(records.partners[r]);
+			long fromHigh = a > b ? 1 : 0;
+			packed[fill[lows[r]]++] = ((long) Math.max(a, b) << 32) | ((long) records.durations[r] << 1) | fromHigh;
+		}
+		lows = null;
+
+		//sort each bucket, then read off edges and their bins in order of (low, high, duration)
+		int[] degrees = new int[ids.length];
+		int numEdges = 0;
+		int numBins = 0;
+		for (int low = 0; low < ids.length; low++)
+		{
+			Arrays.sort(packed, bucketStarts[low], bucketStarts[low + 1]);
+			for (int i = bucketStarts[low]; i < bucketStarts[low + 1]; i++)
+			{
+				if (i == bucketStarts[low] || (packed[i] >>> 32) != (packed[i - 1] >>> 32))
+				{
+					numEdges++;
+					degrees[low]++;
+					degrees[(int) (packed[i] >>> 32)]++;
+				}
+				if (i == bucketStarts[low] || (packed[i] >>> 1) != (packed[i - 1] >>> 1))
+					numBins++;
+			}
+		}
+
+		int[] offsets = new int[ids.length + 1];
+		for (int i = 0; i < ids.length; i++)
+			offsets[i + 1] = offsets[i] + degrees[i];
+		int[] partners = new int[offsets[ids.length]];
+		int[] edges = new int[partners.length];
+		int[] binStarts = new int[numEdges + 1];
+		int[] binDurations = new int[numBins];
+		int[] binCounts = new int[numBins];
+		fill = Arrays.copyOf(offsets, ids.length);
+		int edge = -1;
+		int bin = -1;
+		int fromLow = 0; //counts of the current bin, as recorded from each side
+		int fromHigh = 0;
+		for (int low = 0; low < ids.length; low++)
+		{
+			for (int i = bucketStarts[low]; i < bucketStarts[low + 1]; i++)
+			{
+				int high = (int) (packed[i] >>> 32);
+				if (i == bucketStarts[low] || high != (int) (packed[i - 1] >>> 32))
+				{
+					edge++;
+					binStarts[edge] = bin + 1;
+					//edges are made in order of (low, high), so every list stays sorted by partner
+					partners[fill[low]] = high;
+					edges[fill[low]++] = edge;
+					partners[fill[high]] = low;
+					edges[fill[high]++] = edge;
+				}
+				if (i == bucketStarts[low] || (packed[i] >>> 1) != (packed[i - 1] >>> 1))
+				{
+					bin++;
+					binDurations[bin] = (int) (packed[i] >>> 1) & Integer.MAX_VALUE;
+					fromLow = 0;
+					fromHigh = 0;
+				}
+				if ((packed[i] & 1) == 1)
+					fromHigh++;
+				else
+					fromLow++;
+				binCounts[bin] = Math.max(fromLow, fromHigh);
+			}
+		}
+		binStarts[numEdges] = numBins;
+		return new ContactGraph(ids, offsets, partners, edges, binStarts, binDurations, binCounts);
+	}
+
+	/** Every record of the file, in growable primitive columns **/
+	private static class Records implements ContactParser.ContactHandler
+	{
+		int[] ids = new int[INITIAL_RECORDS];
+		int[] partners = new int[INITIAL_RECORDS];
+		int[] durations = new int[INITIAL_RECORDS];
+		int size;
+
+		@Override
+		public void contact(int id, int partner, int duration)
+		{
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf(ids, size * 2);
+				partners = Arrays.copyOf(partners, size * 2);
+				durations = Arrays.copyOf(durations, size * 2);
+			}
+			ids[size] = id;
+			partners[size] = partner;
+			durations[size] = duration;
+			size++;
+		}
+
+		/** Returns every id in either column, sorted, without repeats **/
+		int[] distinctIDs()
+		{
+			int[] all = Arrays.copyOf(ids, size * 2);
+			System.arraycopy(partners, 0, all, size, size);
+			Arrays.sort(all);
+			int distinct = 0;
+			for (int i = 0; i < all.length; i++)
+			{
+				if (i == 0 || all[i] != all[i - 1])
+					all[distinct++] = all[i];
+			}
+			return Arrays.copyOf(all, distinct);
+		}
+	}
+
+	/** Maps ids to dense indexes, by open addressing over primitive arrays **/
+	private static class Remap
+	{
+		private final int[] keys;
+		private final int[] values; //the dense index + 1, so 0 marks an empty slot
+		private final int mask;
+
+		Remap(int[] sortedIds)
+		{
+			int capacity = Integer.highestOneBit(Math.max(sortedIds.length, 4) * 2 - 1) * 2;
+			keys = new int[capacity];
+			values = new int[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < sortedIds.length; i++)
+			{
+				int slot = hash(sortedIds[i]) & mask;
+				while (values[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = sortedIds[i];
+				values[slot] = i + 1;
+			}
+		}
+
+		/** Returns the dense index of id, which must be mapped **/
+		int get(int id)
+		{
+			int slot = hash(id) & mask;
+			while (keys[slot] != id || values[slot] == 0)
+				slot = (slot + 1) & mask;
+			return values[slot] - 1;
+		}
+
+		/** Spreads the bits of id so that sequential ids don't cluster **/
+		private static int hash(int id)
+		{
+			int h = id * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
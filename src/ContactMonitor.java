@@ -0,0 +1,96 @@
+/**Follows a live feed of contact records, such as a log being appended to, and
+ * prints updated fits as they come in. Every InteractionPair keeps running totals,
+ * so after each batch of records only the individuals the batch touched are
+ * re-fit, and each re-fit costs O(bins) no matter how much history came before
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+public class ContactMonitor
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final IndividualIndex input; //every individual seen so far
+	private IndividualIndex touched; //individuals with records since the last report
+	private final long reportEvery; //records between reports
+	private final PrintStream out;
+	private long sinceReport;
+
+	/** @param reportEvery the number of records to read between reports
+	 * @param out where to print reports
+	 */
+	public ContactMonitor(long reportEvery, PrintStream out)
+	{
+		this.input = new IndividualIndex();
+		this.touched = new IndividualIndex();
+		this.reportEvery = reportEvery;
+		this.out = out;
+	}
+
+	/** Reads records from in until it ends, reporting every reportEvery records
+	 * and once more at the end
+	 * @return every individual seen
+	 * @throws IOException if in cannot be read or a record is malformed
+	 */
+	public IndividualIndex follow(InputStream in) throws IOException
+	{
+		ContactParser parser = new ContactParser((id, partner, duration) -> contact(id, duration));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+		{
+			parser.feed(buffer, 0, read);
+			if (sinceReport >= reportEvery)
+				report();
+		}
+		parser.finish();
+		report();
+		return input;
+	}
+
+	/** Records one contact **/
+	private void contact(int id, int duration)
+	{
+		InteractionPair pair = input.getOrCreate(id);
+		pair.addInteraction(duration);
+		touched.put(pair);
+		sinceReport++;
+	}
+
+	/** Prints the current fit of every individual touched since the last report **/
+	private void report()
+	{
+		if (touched.size() == 0)
+			return;
+		InteractionPair[] pairs = touched.toSortedArray();
+		for (int i = 0; i < pairs.length; i++)
+		{
+			InteractionPair pair = pairs[i];
+			String line = "id " + pair.getID() + " interactions: " + pair.getTotalInteractions()
+					+ " p-hat: " + pair.getEstimatedP();
+			ChiSquaredResult result = pair.runChiSquaredTest();
+			if (result != null)
+				line += " Chi sq: " + result.getChiSquared() + " degrees of freedom: "
+						+ result.getDegreesOfFreedom() + " p-value: " + result.getPValue();
+			out.println(line);
+		}
+		out.println("-- " + input.size() + " individuals");
+		touched = new IndividualIndex();
+		sinceReport = 0;
+	}
+}
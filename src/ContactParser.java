@@ -0,0 +1,183 @@
+/**Streaming parser for contact files in the format of paper
+ * "A high-resolution human contact network for infectious disease transmission"
+ * Each line is a record of the form "human_id1 human_id2 interaction_duration",
+ * separated by any mix of spaces and tabs. Bytes are read in large blocks and the
+ * ints are parsed straight from them, so no String or Scanner is made per line.
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class ContactParser
+{
+	private static final int BUFFER_SIZE = 1 << 20; //bytes read from the file at a time
+	private static final int NUM_FIELDS = 3; //id, partner id, duration. Anything after is ignored
+
+	/** Receives every record parsed from a contact file **/
+	public interface ContactHandler
+	{
+		void contact(int id, int partner, int duration);
+	}
+
+	private final ContactHandler handler;
+	private final int[] fields; //the fields of the record currently being read
+	private int fieldIndex; //the index of the field currently being read
+	private long value; //the value of the number currently being read
+	private boolean inNumber; //true if we are part way through reading a number
+	private long lineNumber;
+	private long records; //the number of records passed to the handler
+
+	public ContactParser(ContactHandler handler)
+	{
+		this.handler = handler;
+		fields = new int[NUM_FIELDS];
+		lineNumber = 1;
+	}
+
+	/** Parses every record in the file, passing each to handler. Gzipped files are
+	 * inflated on this thread and parsed on another; see GzipIngest
+	 * @param inputFile the file to parse
+	 * @param handler receives each record, in file order
+	 * @return the number of records parsed
+	 * @throws IOException if the file cannot be read or a record is malformed
+	 */
+	public static long parse(File inputFile, ContactHandler handler) throws IOException
+	{
+		if (GzipIngest.isGzip(inputFile))
+			return GzipIngest.parse(inputFile, handler);
+		FileInputStream stream = new FileInputStream(inputFile);
+		try
+		{
+			FileChannel channel = stream.getChannel();
+			return parse(channel, 0, channel.size(), handler);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+	
+	/** Parses every record in bytes [start, end) of channel, passing each to handler.
+	 * Uses positional reads, so several threads may parse different ranges of the
+	 * same channel at once
+	 * PRECONDITION: start is 0 or just past a newline, and end is the end of the
+	 * channel or just past a newline
+	 * @return the number of records parsed
+	 * @throws IOException if the channel cannot be read or a record is malformed
+	 */
+	public static long parse(FileChannel channel, long start, long end, ContactHandler handler) 
+			throws IOException
+	{
+		ContactParser parser = new ContactParser(handler);
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(end - start, 1)));
+		long position = start;
+		while (position < end)
+		{
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if (read == -1)
+				break;
+			parser.feed(buffer.array(), 0, buffer.position());
+			position += buffer.position();
+			buffer.clear();
+		}
+		parser.finish();
+		PipelineMetrics.addRecords(parser.getRecords());
+		PipelineMetrics.addBytesRead(end - start);
+		return parser.getRecords();
+	}
+
+	/** Parses a block of bytes. Records may be split across blocks; the parser
+	 * picks up where the previous block left off
+	 * @param bytes the block to parse
+	 * @param offset the index of the first byte to parse
+	 * @param length the number of bytes to parse
+	 * @throws IOException if a record is malformed
+	 */
+	public void feed(byte[] bytes, int offset, int length) throws IOException
+	{
+		int end = offset + length;
+		for (int i = offset; i < end; i++)
+		{
+			byte b = bytes[i];
+			if (b == '\n')
+			{
+				endField();
+				endRecord();
+				lineNumber++;
+			}
+			else if (fieldIndex >= NUM_FIELDS)
+				continue; //we dont care about any trailing columns
+			else if (b >= '0' && b <= '9')
+			{
+				value = (value * 10) + (b - '0');
+				if (value > Integer.MAX_VALUE)
+					throw malformed("number out of range");
+				inNumber = true;
+			}
+			else if (b == ' ' || b == '\t' || b == '\r')
+				endField();
+			else
+				throw malformed("unexpected character '" + (char) b + "'");
+		}
+	}
+
+	/** Flushes the last record, in case the file does not end with a newline
+	 * @throws IOException if the last record is malformed
+	 */
+	public void finish() throws IOException
+	{
+		endField();
+		endRecord();
+	}
+
+	public long getRecords()
+	{
+		return records;
+	}
+
+	private void endField()
+	{
+		if (!inNumber)
+			return;
+		fields[fieldIndex] = (int) value;
+		fieldIndex++;
+		value = 0;
+		inNumber = false;
+	}
+
+	private void endRecord() throws IOException
+	{
+		if (fieldIndex == 0) //blank line
+			return;
+		if (fieldIndex < NUM_FIELDS)
+			throw malformed("expected " + NUM_FIELDS + " fields, found " + fieldIndex);
+		if (fields[2] == Integer.MAX_VALUE) //duration + 1 trials must fit in an int
+			throw malformed("duration out of range");
+
+		handler.contact(fields[0], fields[1], fields[2]);
+		records++;
+		fieldIndex = 0;
+	}
+
+	private IOException malformed(String reason)
+	{
+		return new IOException("Malformed contact record on line " + lineNumber + ": " + reason);
+	}
+}
@@ -0,0 +1,211 @@
+/**Writes (duration, #interactions, probability) rows for each individual as a .csv,
+ * in the same form as Interaction.toString(). Numbers are formatted straight into a
+ * large reusable byte buffer that is written out through an NIO channel, so no
+ * String is made per row. Output may optionally be gzipped
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+public class CsvWriter implements Closeable, DurationHistogram.BinVisitor
+{
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAX_FIELD_SIZE = 32; //no number we write is longer than this
+	private static final byte[] HEADER = "Interactions for human ".getBytes();
+	private static final byte[] SEPARATOR = ", ".getBytes();
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final byte[] bytes; //the array behind buffer
+	private final StringBuilder scratch; //reused to format doubles
+	private int position; //the next free index of bytes
+	private long total; //total interactions of the individual being written
+	private IOException error; //kept from bin(), which can't throw
+
+	public CsvWriter(WritableByteChannel channel)
+	{
+		this.channel = channel;
+		bytes = new byte[BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(bytes);
+		scratch = new StringBuilder(MAX_FIELD_SIZE);
+	}
+
+	/** Opens a writer to outputFile, replacing anything already there
+	 * @param gzip true to gzip the output
+	 */
+	public static CsvWriter open(File outputFile, boolean gzip) throws IOException
+	{
+		FileOutputStream stream = new FileOutputStream(outputFile);
+		if (!gzip)
+			return new CsvWriter(stream.getChannel());
+		try
+		{
+			return new CsvWriter(Channels.newChannel(new GZIPOutputStream(stream, 1 << 16)));
+		}
+		catch (IOException e) //the gzip header is written straight away, and can fail
+		{
+			stream.close();
+			throw e;
+		}
+	}
+
+	/** Writes every individual in pairs, in order
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeAll(InteractionPair[] pairs) throws IOException
+	{
+		for (int i = 0; i < pairs.length; i++)
+			writeIndividual(pairs[i]);
+	}
+
+	/** Writes the header line and one row per duration for this individual **/
+	public void writeIndividual(InteractionPair pair) throws IOException
+	{
+		writeHeader(pair.getID());
+		total = pair.getTotalInteractions();
+		pair.getHistogram().forEach(this);
+		finishIndividual(pair.getHistogram().getBinCount());
+	}
+
+	/** Writes the header line and one row per duration for individual id of store **/
+	public void writeIndividual(OffHeapHistogramStore store, int id) throws IOException
+	{
+		writeHeader(id);
+		total = store.getTotal(id);
+		store.forEach(id, this);
+		finishIndividual(store.getBinCount(id));
+	}
+
+	private void writeHeader(int id) throws IOException
+	{
+		ensureRoom(HEADER.length + MAX_FIELD_SIZE);
+		writeBytes(HEADER);
+		writeInt(id);
+		bytes[position++] = '\n';
+	}
+
+	/** Counts the bins just written, and throws any error bin() kept **/
+	private void finishIndividual(int bins) throws IOException
+	{
+		PipelineMetrics.addBinsWritten(bins);
+		if (error != null)
+		{
+			IOException e = error;
+			error = null;
+			throw e;
+		}
+	}
+
+	/** Writes the row for one bin. Called by the histogram being written **/
+	@Override
+	public void bin(int duration, int count)
+	{
+		try
+		{
+			ensureRoom(3 * MAX_FIELD_SIZE);
+		}
+		catch (IOException e)
+		{
+			if (error == null)
+				error = e;
+			return;
+		}
+		writeInt(duration);
+		writeBytes(SEPARATOR);
+		writeDouble(count);
+		writeBytes(SEPARATOR);
+		writeDouble((double) count / total);
+		bytes[position++] = '\n';
+	}
+
+	/** Flushes anything buffered and closes the channel **/
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private void ensureRoom(int needed) throws IOException
+	{
+		if (position + needed > bytes.length)
+			flush();
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.clear();
+		buffer.limit(position);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		position = 0;
+	}
+
+	private void writeBytes(byte[] src)
+	{
+		System.arraycopy(src, 0, bytes, position, src.length);
+		position += src.length;
+	}
+
+	/** Writes the decimal digits of value **/
+	private void writeInt(int value)
+	{
+		if (value == Integer.MIN_VALUE)
+		{
+			writeDouble(value); //can't be negated; rare enough not to matter
+			return;
+		}
+		if (value < 0)
+		{
+			bytes[position++] = '-';
+			value = -value;
+		}
+
+		int digits = 1;
+		for (int rest = value / 10; rest != 0; rest /= 10)
+			digits++;
+		int end = position + digits;
+		for (int i = end - 1; i >= position; i--)
+		{
+			bytes[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		position = end;
+	}
+
+	/** Writes value exactly as Double.toString() would, without making a String **/
+	private void writeDouble(double value)
+	{
+		scratch.setLength(0);
+		scratch.append(value);
+		int length = scratch.length();
+		for (int i = 0; i < length; i++)
+			bytes[position + i] = (byte) scratch.charAt(i);
+		position += length;
+	}
+}
@@ -0,0 +1,40 @@
+/**A candidate distribution for the number of bernoulli trials (duration + 1) of an
+ * individual's interactions. Implementations are fit to an individual's observed bins
+ * and then asked for the probability of each bin, so that ModelSelector can compare
+ * every candidate over the same bins. Fitters keep the parameters of their last fit,
+ * so each thread needs its own
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public interface DistributionFitter
+{
+	/** Returns the name of the distribution, eg "geometric" **/
+	String getName();
+
+	/** Returns the number of parameters estimated by fit() **/
+	int getNumParameters();
+
+	/** Fits the distribution to observed
+	 * PRECONDITION: observed.summarize() has been called
+	 * @return false if the distribution cannot be fit to these bins
+	 */
+	boolean fit(ObservedBins observed);
+
+	/** Returns ln(P(trials == observed.getTrials(i))) under the last fit **/
+	double logProbability(ObservedBins observed, int i);
+
+	/** Returns the parameters of the last fit, eg "p=0.25" **/
+	String describe();
+}
@@ -0,0 +1,164 @@
+/**Counts how many interactions of each duration an individual has had.
+ * Short durations, which is almost all of them, are counted in a dense int[]
+ * indexed by duration that grows as needed. Durations too long to be worth a
+ * dense slot are kept in a small sorted sparse table instead
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+public class DurationHistogram
+{
+	private static final int INITIAL_DENSE_SIZE = 16;
+	private static final int MAX_DENSE_SIZE = 1 << 12; //durations at or past this go to the sparse table
+	private static final int INITIAL_SPARSE_SIZE = 4;
+
+	/** Receives each non-empty bin of a histogram, in order of increasing duration **/
+	public interface BinVisitor
+	{
+		void bin(int duration, int count);
+	}
+
+	private int[] dense; //dense[duration] = number of interactions of that duration
+	private int[] sparseDurations; //sorted durations too long for dense
+	private int[] sparseCounts; //sparseCounts[i] = number of interactions of sparseDurations[i]
+	private int sparseSize;
+	private int bins; //number of durations with at least one interaction
+	private long total; //number of interactions recorded
+
+	public DurationHistogram()
+	{
+		dense = new int[INITIAL_DENSE_SIZE];
+	}
+
+	/** Records one interaction of this duration
+	 * @return the number of interactions of this duration, including this one
+	 */
+	public int add(int duration)
+	{
+		return add(duration, 1);
+	}
+
+	/** Records count interactions of this duration
+	 * @return the number of interactions of this duration, including these
+	 * @throws IllegalArgumentException if duration is negative
+	 */
+	public int add(int duration, int count)
+	{
+		if (duration < 0)
+			throw new IllegalArgumentException("Negative interaction duration: " + duration);
+		if (count == 0)
+			return getCount(duration);
+		total += count;
+
+		if (duration < dense.length)
+		{
+			if (dense[duration] == 0)
+				bins++;
+			dense[duration] += count;
+			return dense[duration];
+		}
+		if (duration < MAX_DENSE_SIZE)
+		{
+			int newSize = Math.min(MAX_DENSE_SIZE, Math.max(dense.length * 2, duration + 1));
+			dense = Arrays.copyOf(dense, newSize);
+			dense[duration] = count;
+			bins++;
+			return count;
+		}
+		return addSparse(duration, count);
+	}
+
+	/** Adds every bin of other to this histogram **/
+	public void merge(DurationHistogram other)
+	{
+		int[] otherDense = other.dense;
+		for (int duration = 0; duration < otherDense.length; duration++)
+		{
+			if (otherDense[duration] != 0)
+				add(duration, otherDense[duration]);
+		}
+		for (int i = 0; i < other.sparseSize; i++)
+			add(other.sparseDurations[i], other.sparseCounts[i]);
+	}
+
+	/** Returns the number of interactions of this duration **/
+	public int getCount(int duration)
+	{
+		if (duration < 0)
+			return 0;
+		if (duration < dense.length)
+			return dense[duration];
+		if (sparseSize == 0)
+			return 0;
+		int i = Arrays.binarySearch(sparseDurations, 0, sparseSize, duration);
+		return i < 0 ? 0 : sparseCounts[i];
+	}
+
+	/** Returns the number of distinct durations recorded **/
+	public int getBinCount()
+	{
+		return bins;
+	}
+
+	/** Returns the number of interactions recorded **/
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/** Visits every non-empty bin in order of increasing duration **/
+	public void forEach(BinVisitor visitor)
+	{
+		for (int duration = 0; duration < dense.length; duration++)
+		{
+			if (dense[duration] != 0)
+				visitor.bin(duration, dense[duration]);
+		}
+		for (int i = 0; i < sparseSize; i++)
+			visitor.bin(sparseDurations[i], sparseCounts[i]);
+	}
+
+	private int addSparse(int duration, int count)
+	{
+		if (sparseDurations == null)
+		{
+			sparseDurations = new int[INITIAL_SPARSE_SIZE];
+			sparseCounts = new int[INITIAL_SPARSE_SIZE];
+		}
+
+		int i = Arrays.binarySearch(sparseDurations, 0, sparseSize, duration);
+		if (i >= 0)
+		{
+			sparseCounts[i] += count;
+			return sparseCounts[i];
+		}
+
+		//else, insert a new bin, keeping the table sorted
+		int insertAt = -(i + 1);
+		if (sparseSize == sparseDurations.length)
+		{
+			sparseDurations = Arrays.copyOf(sparseDurations, sparseSize * 2);
+			sparseCounts = Arrays.copyOf(sparseCounts, sparseSize * 2);
+		}
+		System.arraycopy(sparseDurations, insertAt, sparseDurations, insertAt + 1, sparseSize - insertAt);
+		System.arraycopy(sparseCounts, insertAt, sparseCounts, insertAt + 1, sparseSize - insertAt);
+		sparseDurations[insertAt] = duration;
+		sparseCounts[insertAt] = count;
+		sparseSize++;
+		bins++;
+		return count;
+	}
+}
@@ -0,0 +1,252 @@
+/**Draws interaction durations from each individual's empirical distribution, the same
+ * probabilities setInteractionsProbabilities() and the output csv give, in constant time
+ * per draw by Vose's alias method. The alias tables of every individual are laid end to
+ * end in flat primitive arrays, so drawing touches two array slots and nothing else.
+ * Also holds a pooled table over the whole cohort, for individuals with no data of their own.
+ * Tables are built from the integer counts, so the probabilities are exact. Immutable once
+ * built, so any number of threads may draw at once, each with its own random
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class DurationSampler
+{
+	private final int[] ids; //the id of each individual, sorted
+	private final int[] starts; //individual i's table is [starts[i], starts[i + 1]) of the arrays below
+	private final int[] durations; //the duration of each column
+	private final double[] thresholds; //draw the column's own duration below this fraction, else its alias's
+	private final int[] aliases; //the duration of each column's alias
+	private final int pooledStart; //the pooled table is [pooledStart, durations.length)
+
+	private DurationSampler(int[] ids, int[] starts, int[] durations, double[] thresholds, int[] aliases,
+			int pooledStart)
+	{
+		this.ids = ids;
+		this.starts = starts;
+		this.durations = durations;
+		this.thresholds = thresholds;
+		this.aliases = aliases;
+		this.pooledStart = pooledStart;
+	}
+
+	/** Builds the alias tables of every individual in input with at least one
+	 * interaction, and the pooled table over all of them
+	 */
+	public static DurationSampler build(IndividualIndex input)
+	{
+		InteractionPair[] pairs = input.toSortedArray();
+		int n = 0;
+		int columns = 0;
+		DurationHistogram pooled = new DurationHistogram();
+		for (int i = 0; i < pairs.length; i++)
+		{
+			DurationHistogram histogram = pairs[i].getHistogram();
+			if (histogram.getBinCount() == 0)
+				continue;
+			n++;
+			columns += histogram.getBinCount();
+			pooled.merge(histogram);
+		}
+
+		int[] ids = new int[n];
+		int[] starts = new int[n + 1];
+		int[] durations = new int[columns + pooled.getBinCount()];
+		double[] thresholds = new double[durations.length];
+		int[] aliases = new int[durations.length];
+		TableBuilder builder = new TableBuilder(durations, thresholds, aliases);
+		int individual = 0;
+		for (int i = 0; i < pairs.length; i++)
+		{
+			DurationHistogram histogram = pairs[i].getHistogram();
+			if (histogram.getBinCount() == 0)
+				continue;
+			ids[individual] = pairs[i].getID();
+			starts[individual] = builder.next;
+			builder.build(histogram);
+			individual++;
+		}
+		starts[n] = builder.next;
+		builder.build(pooled);
+		return new DurationSampler(ids, starts, durations, thresholds, aliases, starts[n]);
+	}
+
+	/** Returns the number of individuals with a table of their own **/
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/** Returns the index of individual id's table, or -1 if they have none. Look this
+	 * up once per individual rather than once per draw
+	 */
+	public int indexOf(int id)
+	{
+		int i = Arrays.binarySearch(ids, id);
+		return i < 0 ? -1 : i;
+	}
+
+	public int getID(int index)
+	{
+		return ids[index];
+	}
+
+	/** Draws a duration for the individual at index, from their own distribution
+	 * @param u a uniform random number in [0, 1)
+	 */
+	public int sample(int index, double u)
+	{
+		return draw(starts[index], starts[index + 1] - starts[index], u);
+	}
+
+	/** Draws a duration for the individual at index, from their own distribution **/
+	public int sample(int index, SplittableRandom random)
+	{
+		return sample(index, random.nextDouble());
+	}
+
+	/** Draws a duration for individual id, from their own distribution if they have
+	 * one and from the pooled distribution if not
+	 */
+	public int sampleByID(int id, SplittableRandom random)
+	{
+		int index = indexOf(id);
+		return index < 0 ? samplePooled(random) : sample(index, random);
+	}
+
+	/** Draws a duration from every interaction of the cohort pooled together
+	 * @param u a uniform random number in [0, 1)
+	 * @throws IllegalStateException if the cohort has no interactions to draw from
+	 */
+	public int samplePooled(double u)
+	{
+		int columns = durations.length - pooledStart;
+		if (columns == 0) //only the pooled table can be empty; every individual's has a column
+			throw new IllegalStateException("No interactions to sample from");
+		return draw(pooledStart, columns, u);
+	}
+
+	/** Draws a duration from every interaction of the cohort pooled together **/
+	public int samplePooled(SplittableRandom random)
+	{
+		return samplePooled(random.nextDouble());
+	}
+
+	/** Fills out with draws for the individual at index **/
+	public void sample(int index, SplittableRandom random, int[] out, int offset, int length)
+	{
+		int start = starts[index];
+		int columns = starts[index + 1] - start;
+		for (int i = offset; i < offset + length; i++)
+			out[i] = draw(start, columns, random.nextDouble());
+	}
+
+	/** One uniform picks both the column, from its integer part, and which of
+	 * the column's two durations to take, from its fraction
+	 */
+	private int draw(int start, int columns, double u)
+	{
+		double scaled = u * columns;
+		int column = (int) scaled;
+		if (column >= columns) //only if rounding pushed u * columns up to columns
+			column = columns - 1;
+		int i = start + column;
+		return scaled - column < thresholds[i] ? durations[i] : aliases[i];
+	}
+
+	/** Builds alias tables one after another into shared arrays, by Vose's method **/
+	private static class TableBuilder implements DurationHistogram.BinVisitor
+	{
+		private final int[] durations;
+		private final double[] thresholds;
+		private final int[] aliases;
+		private int next; //the first free column
+		private long[] weights = new long[16]; //scratch: each column's count * columns
+		private int[] small = new int[16]; //scratch: columns with weight under the total
+		private int[] large = new int[16]; //scratch: columns with weight at or over the total
+		private int columns; //the number of columns of the table being built
+
+		TableBuilder(int[] durations, double[] thresholds, int[] aliases)
+		{
+			this.durations = durations;
+			this.thresholds = thresholds;
+			this.aliases = aliases;
+		}
+
+		/** Builds the table for histogram at the next free column **/
+		void build(DurationHistogram histogram)
+		{
+			int n = histogram.getBinCount();
+			if (weights.length < n)
+			{
+				weights = new long[n];
+				small = new int[n];
+				large = new int[n];
+			}
+			columns = 0;
+			histogram.forEach(this);
+
+			//scaling each count by n makes the average weight the total, so that
+			//every comparison is exact in integers
+			long total = histogram.getTotal();
+			int smallSize = 0;
+			int largeSize = 0;
+			for (int i = 0; i < n; i++)
+			{
+				weights[i] *= n;
+				if (weights[i] < total)
+					small[smallSize++] = i;
+				else
+					large[largeSize++] = i;
+			}
+			while (smallSize > 0 && largeSize > 0)
+			{
+				int less = small[--smallSize];
+				int more = large[--largeSize];
+				thresholds[next + less] = (double) weights[less] / total;
+				aliases[next + less] = durations[next + more];
+				//the large column gives up what it takes to fill the small one
+				weights[more] -= total - weights[less];
+				if (weights[more] < total)
+					small[smallSize++] = more;
+				else
+					large[largeSize++] = more;
+			}
+			//whatever is left weighs exactly the total
+			while (largeSize > 0)
+			{
+				int column = large[--largeSize];
+				thresholds[next + column] = 1;
+				aliases[next + column] = durations[next + column];
+			}
+			while (smallSize > 0) //can't happen with exact weights, but costs nothing to be safe
+			{
+				int column = small[--smallSize];
+				thresholds[next + column] = 1;
+				aliases[next + column] = durations[next + column];
+			}
+			next += n;
+		}
+
+		@Override
+		public void bin(int duration, int count)
+		{
+			durations[next + columns] = duration;
+			weights[columns] = count;
+			columns++;
+		}
+	}
+}
@@ -0,0 +1,526 @@
+/**Aggregates contacts into (id, duration, count) triples within a fixed memory budget,
+ * for inputs whose histograms will not fit on the heap. Triples are counted in a fixed
+ * size open addressing table keyed by (id << 32 | duration); when the table fills, it is
+ * sorted in place and spilled to a temporary run file, delta and varint encoded, and
+ * emptied. Afterwards the runs and whatever is left in the table are k-way merged, and
+ * each individual is built from the merged triples and handed on one at a time, in order
+ * of id, so only one individual's histogram is ever on the heap. A merge reads at most
+ * a fixed number of runs at once, set by the budget, so when there are more runs than
+ * that they are first merged a group at a time into longer ones
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class ExternalAggregator implements ContactParser.ContactHandler, Closeable
+{
+	private static final int BYTES_PER_SLOT = 8 + 4; //a long key and an int count
+	private static final int MIN_CAPACITY = 1 << 10;
+	private static final int MAX_CAPACITY = 1 << 30;
+	private static final long EMPTY = -1; //keys are never negative, since ids and durations aren't
+	private static final int RUN_BUFFER_SIZE = 1 << 16; //bytes buffered per run file
+	private static final int MERGE_BUDGET_SHARE = 4; //run buffers get 1 / this of the budget
+	private static final int MIN_FAN_IN = 2;
+	private static final int MAX_FAN_IN = 64; //bounds the files open at once
+	private static final int INSERTION_SORT_SIZE = 16; //ranges this small are insertion sorted
+
+	/** Receives each individual, in order of id, once all of its interactions are added **/
+	public interface IndividualHandler
+	{
+		void individual(InteractionPair pair) throws IOException;
+	}
+
+	/** Receives the entries of a merge, in order of key **/
+	private interface EntryHandler
+	{
+		void entry(long key, int count) throws IOException;
+	}
+
+	private final File tempDir; //where runs are spilled; null for the system default
+	private final long[] keys; //the key of each slot, or EMPTY
+	private final int[] counts; //the count of each slot
+	private final int mask;
+	private final int maxFanIn; //the most runs a merge reads at once
+	private int size;
+	private final ArrayList<File> runs = new ArrayList<>();
+	private IOException error; //kept from contact(), which can't throw
+
+	/** @param budgetBytes roughly how much heap the table may take
+	 * @param tempDir where to spill runs, or null for the system default
+	 */
+	public ExternalAggregator(long budgetBytes, File tempDir)
+	{
+		long slots = Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, budgetBytes / BYTES_PER_SLOT));
+		int capacity = Integer.highestOneBit((int) slots);
+		keys = new long[capacity];
+		counts = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		maxFanIn = (int) Math.max(MIN_FAN_IN, Math.min(MAX_FAN_IN, 
+				budgetBytes / MERGE_BUDGET_SHARE / RUN_BUFFER_SIZE));
+		this.tempDir = tempDir;
+	}
+
+	/** Parses inputFile and hands each individual to handler, in order of id, holding
+	 * no more than about budgetBytes of interactions on the heap at once
+	 * @param tempDir where to spill runs, or null for the system default
+	 * @throws IOException if the input is malformed, or input or runs cannot be read or written
+	 */
+	public static void aggregate(File inputFile, long budgetBytes, File tempDir, IndividualHandler handler) 
+			throws IOException
+	{
+		ExternalAggregator aggregator = new ExternalAggregator(budgetBytes, tempDir);
+		try
+		{
+			long start = PipelineMetrics.start();
+			ContactParser.parse(inputFile, aggregator);
+			aggregator.checkError();
+			PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, start);
+			aggregator.stream(handler);
+		}
+		finally
+		{
+			aggregator.close();
+		}
+	}
+
+	/** Adds one contact. Called by the parser **/
+	@Override
+	public void contact(int id, int partner, int duration)
+	{
+		if (error != null)
+			return;
+		try
+		{
+			add(id, duration, 1);
+		}
+		catch (IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/** Adds count interactions of this duration to individual id, spilling a run first if the table is full
+	 * @throws IOException if a run cannot be written
+	 */
+	public void add(int id, int duration, int count) throws IOException
+	{
+		long key = ((long) id << 32) | duration;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY)
+		{
+			if (keys[slot] == key)
+			{
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		counts[slot] = count;
+		size++;
+		if (size * 2 > keys.length) //keep the load factor at or under 0.5
+			spill();
+	}
+
+	/** Returns the number of runs spilled so far **/
+	public int getRuns()
+	{
+		return runs.size();
+	}
+
+	/** Merges the runs with what is left in the table, handing each individual to
+	 * handler in order of id. Empties the aggregator
+	 * @throws IOException if a run cannot be read, or handler throws
+	 */
+	public void stream(IndividualHandler handler) throws IOException
+	{
+		checkError();
+		ArrayList<Run> open = new ArrayList<>();
+		try
+		{
+			reduceRuns();
+			for (File run : runs)
+				open.add(new FileRun(run));
+			open.add(new MemoryRun(keys, counts, sortTable()));
+
+			InteractionPair[] pair = {null}; //the individual being built
+			merge(open, (key, count) -> {
+				int id = (int) (key >>> 32);
+				if (pair[0] == null || pair[0].getID() != id)
+				{
+					if (pair[0] != null)
+						handler.individual(pair[0]);
+					pair[0] = new InteractionPair(id);
+				}
+				pair[0].addInteractions((int) key, count);
+			});
+			if (pair[0] != null)
+				handler.individual(pair[0]);
+		}
+		finally
+		{
+			for (Run run : open)
+				run.close();
+			deleteRuns();
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+	}
+
+	/** Merges runs maxFanIn at a time into longer runs, until few enough are left for the
+	 * last merge to read them all at once alongside the table
+	 * @throws IOException if a run cannot be read or written
+	 */
+	private void reduceRuns() throws IOException
+	{
+		while (runs.size() > maxFanIn - 1)
+		{
+			List<File> group = new ArrayList<>(runs.subList(0, maxFanIn));
+			runs.subList(0, maxFanIn).clear();
+			ArrayList<Run> open = new ArrayList<>();
+			try
+			{
+				for (File run : group)
+					open.add(new FileRun(run));
+				RunWriter writer = new RunWriter(newRun());
+				try
+				{
+					merge(open, writer::write);
+				}
+				finally
+				{
+					writer.close();
+				}
+			}
+			finally
+			{
+				for (Run run : open)
+					run.close();
+				for (File run : group)
+					run.delete();
+			}
+		}
+	}
+
+	/** Merges the sorted inputs, handing each key to handler once with its counts summed **/
+	private static void merge(List<Run> inputs, EntryHandler handler) throws IOException
+	{
+		PriorityQueue<Run> queue = new PriorityQueue<>(inputs.size() + 1, 
+				(a, b) -> Long.compare(a.key, b.key));
+		for (Run run : inputs)
+		{
+			if (run.next())
+				queue.add(run);
+		}
+		while (!queue.isEmpty())
+		{
+			Run run = queue.poll();
+			long key = run.key;
+			int count = run.count;
+			if (run.next())
+				queue.add(run);
+			//runs are each sorted, so equal keys from other runs come out next
+			while (!queue.isEmpty() && queue.peek().key == key)
+			{
+				Run same = queue.poll();
+				count += same.count;
+				if (same.next())
+					queue.add(same);
+			}
+			handler.entry(key, count);
+		}
+	}
+
+	/** Deletes any runs left on disk **/
+	@Override
+	public void close()
+	{
+		deleteRuns();
+	}
+
+	/** Sorts the table and writes it out as a new run, leaving the table empty **/
+	private void spill() throws IOException
+	{
+		int n = sortTable();
+		RunWriter writer = new RunWriter(newRun());
+		try
+		{
+			for (int i = 0; i < n; i++)
+				writer.write(keys[i], counts[i]);
+		}
+		finally
+		{
+			writer.close();
+		}
+		Arrays.fill(keys, 0, n, EMPTY);
+		size = 0;
+	}
+
+	/** Makes a new, empty run file, deleted by close() if not before **/
+	private File newRun() throws IOException
+	{
+		File run = File.createTempFile("contacts", ".run", tempDir);
+		run.deleteOnExit();
+		runs.add(run);
+		return run;
+	}
+
+	/** Moves every entry to the front of the table and sorts them by key. The table
+	 * can no longer be probed until it is emptied
+	 * @return the number of entries
+	 */
+	private int sortTable()
+	{
+		int n = 0;
+		for (int slot = 0; slot < keys.length; slot++)
+		{
+			if (keys[slot] == EMPTY)
+				continue;
+			keys[n] = keys[slot];
+			counts[n] = counts[slot];
+			if (slot != n)
+				keys[slot] = EMPTY;
+			n++;
+		}
+		sort(keys, counts, 0, n - 1);
+		return n;
+	}
+
+	/** Sorts keys[low..high] in place, moving counts along with them, by quicksort **/
+	private static void sort(long[] keys, int[] counts, int low, int high)
+	{
+		while (high - low >= INSERTION_SORT_SIZE)
+		{
+			//median of three, so sorted and reversed input don't go quadratic
+			int mid = (low + high) >>> 1;
+			if (keys[mid] < keys[low])
+				swap(keys, counts, mid, low);
+			if (keys[high] < keys[low])
+				swap(keys, counts, high, low);
+			if (keys[high] < keys[mid])
+				swap(keys, counts, high, mid);
+			long pivot = keys[mid];
+
+			int i = low;
+			int j = high;
+			while (i <= j)
+			{
+				while (keys[i] < pivot)
+					i++;
+				while (keys[j] > pivot)
+					j--;
+				if (i <= j)
+				{
+					swap(keys, counts, i, j);
+					i++;
+					j--;
+				}
+			}
+			//recurse into the smaller side and loop on the larger, bounding the stack
+			if (j - low < high - i)
+			{
+				sort(keys, counts, low, j);
+				low = i;
+			}
+			else
+			{
+				sort(keys, counts, i, high);
+				high = j;
+			}
+		}
+
+		for (int i = low + 1; i <= high; i++)
+		{
+			long key = keys[i];
+			int count = counts[i];
+			int j = i - 1;
+			while (j >= low && keys[j] > key)
+			{
+				keys[j + 1] = keys[j];
+				counts[j + 1] = counts[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			counts[j + 1] = count;
+		}
+	}
+
+	private static void swap(long[] keys, int[] counts, int i, int j)
+	{
+		long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		int count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+	}
+
+	private void checkError() throws IOException
+	{
+		if (error != null)
+			throw error;
+	}
+
+	private void deleteRuns()
+	{
+		for (File run : runs)
+			run.delete();
+		runs.clear();
+	}
+
+	/** Spreads the bits of key so that sequential keys don't cluster **/
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/** Writes a sorted run, delta and varint encoded **/
+	private static class RunWriter implements Closeable
+	{
+		private final DataOutputStream out;
+		private long last; //the key written last
+
+		RunWriter(File file) throws IOException
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER_SIZE));
+		}
+
+		void write(long key, int count) throws IOException
+		{
+			writeVarLong(out, key - last); //keys increase, so deltas are small and positive
+			writeVarLong(out, count);
+			last = key;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+	}
+
+	/** A sorted sequence of (key, count) entries, read one at a time **/
+	private static abstract class Run
+	{
+		long key;
+		int count;
+
+		/** Moves to the next entry
+		 * @return false if there are no more
+		 */
+		abstract boolean next() throws IOException;
+
+		void close() throws IOException
+		{
+		}
+	}
+
+	/** A run spilled to disk **/
+	private static class FileRun extends Run
+	{
+		private final DataInputStream in;
+
+		FileRun(File file) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_SIZE));
+		}
+
+		@Override
+		boolean next() throws IOException
+		{
+			int first = in.read();
+			if (first == -1)
+				return false;
+			key += readVarLong(first);
+			count = (int) readVarLong(in.readUnsignedByte());
+			return true;
+		}
+
+		/** Reads the rest of a varint whose first byte has been read **/
+		private long readVarLong(int first) throws IOException
+		{
+			long value = first & 0x7F;
+			int shift = 7;
+			int b = first;
+			while ((b & 0x80) != 0)
+			{
+				b = in.read();
+				if (b == -1)
+					throw new EOFException("Truncated run file");
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}
+			return value;
+		}
+
+		@Override
+		void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/** The sorted entries left in the table **/
+	private static class MemoryRun extends Run
+	{
+		private final long[] keys;
+		private final int[] counts;
+		private final int size;
+		private int index = -1;
+
+		MemoryRun(long[] keys, int[] counts, int size)
+		{
+			this.keys = keys;
+			this.counts = counts;
+			this.size = size;
+		}
+
+		@Override
+		boolean next()
+		{
+			index++;
+			if (index >= size)
+				return false;
+			key = keys[index];
+			count = counts[index];
+			return true;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**Fits Geometric(p), P(k) = (1-p)^(k-1) * p, by maximum likelihood. The same fit
+ * InteractionPair.runChiSquaredTest() uses, as a candidate for ModelSelector
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class GeometricFitter implements DistributionFitter
+{
+	private double logP; //ln(p)
+	private double logOneMinusP; //ln(1 - p)
+	private double p;
+
+	@Override
+	public String getName()
+	{
+		return "geometric";
+	}
+
+	@Override
+	public int getNumParameters()
+	{
+		return 1;
+	}
+
+	@Override
+	public boolean fit(ObservedBins observed)
+	{
+		p = InteractionPair.estimateP(observed);
+		logP = Math.log(p);
+		logOneMinusP = Math.log1p(-p);
+		return true;
+	}
+
+	@Override
+	public double logProbability(ObservedBins observed, int i)
+	{
+		int k = observed.getTrials(i);
+		if (k == 1) //avoids 0 * -infinity when p == 1
+			return logP;
+		return (k - 1) * logOneMinusP + logP;
+	}
+
+	@Override
+	public String describe()
+	{
+		return "p=" + p;
+	}
+}
@@ -0,0 +1,347 @@
+/**Parses gzip-compressed contact files without decompressing them to disk first.
+ * The calling thread inflates the file into large blocks, cut just past the last
+ * newline so that no record spans two blocks, and hands them through a bounded queue
+ * to parser threads. Inflating and parsing overlap, so a file takes about as long as
+ * the slower of the two rather than their sum. When the parsers fall behind, the
+ * queue fills and the inflater waits. Parsed blocks come back through a second queue
+ * to be filled again, so the same few buffers are reused for the whole file.
+ * Concatenated gzip members, as left by appending to a .gz, are read as one file
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+public class GzipIngest
+{
+	private static final int BLOCK_SIZE = 1 << 20; //uncompressed bytes handed to a parser at a time
+	private static final int QUEUE_DEPTH = 4; //full blocks queued per parser thread before the inflater waits
+	private static final int INFLATE_BUFFER_SIZE = 1 << 16; //compressed bytes read from the file at a time
+	private static final long PUT_WAIT_MILLIS = 100; //how long to wait on a full queue before checking the parsers
+	private static final Block END = new Block(0); //tells a parser thread there are no more blocks
+
+	/** Returns true if inputFile starts with the gzip magic number **/
+	public static boolean isGzip(File inputFile) throws IOException
+	{
+		InputStream in = new FileInputStream(inputFile);
+		try
+		{
+			return in.read() == 0x1f && in.read() == 0x8b;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/** Inflates inputFile on this thread while parsing it on one thread per other core
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or inflated, or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile) throws IOException
+	{
+		return read(inputFile, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/** Inflates inputFile on this thread while parsing it on numThreads others, each into
+	 * its own index. The indexes are merged in thread order at the end; counts are
+	 * additive, so the result is the same as a single-threaded parse
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or inflated, or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile, int numThreads) throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try
+		{
+			return read(inputFile, numThreads, pool);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/** Inflates inputFile on this thread while parsing it on numThreads threads from pool.
+	 * The pool is left running, so callers parsing many files can keep the same threads
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or inflated, or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile, int numThreads, ExecutorService pool) throws IOException
+	{
+		IndividualIndex[] shards = new IndividualIndex[numThreads];
+		ContactParser.ContactHandler[] handlers = new ContactParser.ContactHandler[numThreads];
+		for (int i = 0; i < numThreads; i++)
+		{
+			IndividualIndex shard = new IndividualIndex();
+			shards[i] = shard;
+			handlers[i] = (id, partner, duration) -> shard.getOrCreate(id).addInteraction(duration);
+		}
+		pipeline(inputFile, handlers, pool);
+
+		IndividualIndex input = shards[0];
+		for (int i = 1; i < numThreads; i++)
+		{
+			long mergeStart = PipelineMetrics.start();
+			input.merge(shards[i]);
+			PipelineMetrics.stop(PipelineMetrics.Stage.MERGE, mergeStart);
+		}
+		return input;
+	}
+
+	/** Inflates inputFile on this thread while one other thread parses it, passing every
+	 * record to handler in file order
+	 * @return the number of records parsed
+	 * @throws IOException if the file cannot be read or inflated, or a record is malformed
+	 */
+	public static long parse(File inputFile, ContactParser.ContactHandler handler) throws IOException
+	{
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try
+		{
+			return pipeline(inputFile, new ContactParser.ContactHandler[] {handler}, pool);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/** Inflates inputFile on this thread, parsing blocks on one thread from pool per
+	 * handler. Each handler is only ever called from its own thread
+	 * @return the number of records parsed
+	 */
+	private static long pipeline(File inputFile, ContactParser.ContactHandler[] handlers, ExecutorService pool) 
+			throws IOException
+	{
+		int numThreads = handlers.length;
+		BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUE_DEPTH * numThreads);
+		BlockingQueue<Block> free = new LinkedBlockingQueue<>(); //never holds more blocks than have been made
+		AtomicBoolean failed = new AtomicBoolean(); //set by a parser that hit a malformed record or a failing handler
+		ArrayList<Future<Long>> parsers = new ArrayList<>();
+		try
+		{
+			for (int i = 0; i < numThreads; i++)
+			{
+				ContactParser.ContactHandler handler = handlers[i];
+				parsers.add(pool.submit(() -> parseBlocks(full, free, failed, handler)));
+			}
+
+			long bytes;
+			try
+			{
+				bytes = inflate(inputFile, full, free, failed, parsers);
+			}
+			finally
+			{
+				//parsers drain the queue whatever happens, so these get through unless
+				//every parser is already gone, in which case get() below says why
+				for (int i = 0; i < numThreads; i++)
+				{
+					if (!put(full, END, parsers))
+						break;
+				}
+			}
+
+			long records = 0;
+			for (int i = 0; i < numThreads; i++)
+				records += parsers.get(i).get();
+			PipelineMetrics.addRecords(records);
+			PipelineMetrics.addBytesRead(bytes);
+			return records;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + inputFile, e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to read " + inputFile, e.getCause());
+		}
+		finally
+		{
+			//the pool may outlive this file, so stop whatever is still parsing it
+			for (Future<Long> parser : parsers)
+				parser.cancel(true);
+		}
+	}
+
+	/** Inflates inputFile into blocks that each end just past a newline (bar the last,
+	 * if the file doesn't end with one) and queues them on full, stopping early if a
+	 * parser fails or every parser is gone
+	 * @return the number of uncompressed bytes queued
+	 */
+	private static long inflate(File inputFile, BlockingQueue<Block> full, BlockingQueue<Block> free, 
+			AtomicBoolean failed, List<Future<Long>> parsers) throws IOException, InterruptedException
+	{
+		InputStream in = new GZIPInputStream(new FileInputStream(inputFile), INFLATE_BUFFER_SIZE);
+		try
+		{
+			long position = 0; //uncompressed bytes queued so far
+			Block block = obtain(free, BLOCK_SIZE);
+			int filled = 0;
+			while (!failed.get())
+			{
+				int read = in.read(block.bytes, filled, block.bytes.length - filled);
+				if (read == -1)
+					break;
+				filled += read;
+				if (filled < block.bytes.length)
+					continue;
+
+				int lineEnd = lineEnd(block.bytes, filled);
+				if (lineEnd == 0) //a line longer than a whole block; rare, so just make room
+				{
+					block.bytes = Arrays.copyOf(block.bytes, block.bytes.length * 2);
+					continue;
+				}
+				Block next = obtain(free, block.bytes.length);
+				int rest = filled - lineEnd;
+				System.arraycopy(block.bytes, lineEnd, next.bytes, 0, rest);
+				block.start = position;
+				block.length = lineEnd;
+				if (!put(full, block, parsers))
+					return position;
+				position += lineEnd;
+				block = next;
+				filled = rest;
+			}
+			if (filled > 0 && !failed.get())
+			{
+				block.start = position;
+				block.length = filled;
+				if (put(full, block, parsers))
+					position += filled;
+			}
+			return position;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/** Queues block on full, waiting for room for as long as any parser is still running
+	 * @return false if every parser is gone, so block would never be taken
+	 */
+	private static boolean put(BlockingQueue<Block> full, Block block, List<Future<Long>> parsers) 
+			throws InterruptedException
+	{
+		while (!full.offer(block, PUT_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			boolean running = false;
+			for (Future<Long> parser : parsers)
+				running |= !parser.isDone();
+			if (!running)
+				return false;
+		}
+		return true;
+	}
+
+	/** Parses blocks from full until END, passing every record to handler and every
+	 * parsed block back to free. After a malformed record, or anything else thrown by
+	 * the parser or handler, the rest are only drained, so the inflater is never left
+	 * waiting on a full queue
+	 * @return the number of records parsed
+	 * @throws IOException if a record is malformed or the handler failed
+	 */
+	private static long parseBlocks(BlockingQueue<Block> full, BlockingQueue<Block> free, AtomicBoolean failed,
+			ContactParser.ContactHandler handler) throws IOException, InterruptedException
+	{
+		long records = 0;
+		IOException error = null;
+		while (true)
+		{
+			Block block = full.take();
+			if (block == END)
+				break;
+			if (error == null)
+			{
+				try
+				{
+					//blocks hold whole lines, so each gets a parser of its own
+					ContactParser parser = new ContactParser(handler);
+					parser.feed(block.bytes, 0, block.length);
+					parser.finish();
+					records += parser.getRecords();
+				}
+				catch (Throwable e) //a handler can throw anything; keep draining whatever it was
+				{
+					String reason = e instanceof IOException ? e.getMessage() : e.toString();
+					error = new IOException(reason + " (of the block starting at uncompressed byte " 
+							+ block.start + ")", e);
+					failed.set(true);
+				}
+			}
+			free.offer(block);
+		}
+		if (error != null)
+			throw error;
+		return records;
+	}
+
+	/** Returns a parsed block to fill again, or a new one if none is free yet **/
+	private static Block obtain(BlockingQueue<Block> free, int minSize)
+	{
+		Block block = free.poll();
+		if (block == null)
+			return new Block(minSize);
+		if (block.bytes.length < minSize)
+			block.bytes = new byte[minSize];
+		return block;
+	}
+
+	/** Returns the index just past the last newline in bytes [0, length), or 0 if there is none **/
+	private static int lineEnd(byte[] bytes, int length)
+	{
+		for (int i = length - 1; i >= 0; i--)
+		{
+			if (bytes[i] == '\n')
+				return i + 1;
+		}
+		return 0;
+	}
+
+	/** Uncompressed bytes on their way from the inflater to a parser **/
+	private static class Block
+	{
+		byte[] bytes;
+		int length; //the bytes in use
+		long start; //where bytes[0] is in the uncompressed file, for error messages
+
+		Block(int size)
+		{
+			bytes = new byte[size];
+		}
+	}
+}
@@ -0,0 +1,391 @@
+/**A compact binary snapshot of every individual's duration histogram, so a run can
+ * skip parsing the text input entirely. Laid out in columns:
+ *   header: magic, version, length and CRC32 of the source file, number of individuals
+ *   ids: one int per individual, sorted
+ *   offsets: one long per individual, plus one past the end, giving where each
+ *            individual's bins start in the data column
+ *   data: per individual, the number of bins, then for each bin the gap in duration
+ *         from the bin before and the count, all as unsigned varints
+ * The file is memory-mapped by open(), or copied onto the heap by read() when it may be
+ * replaced while still in use, and individuals are decoded from it on demand
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+public class HistogramSnapshot
+{
+	public static final String EXTENSION = ".cpis";
+	private static final int MAGIC = 0x43504953; //"CPIS"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+	private final ByteBuffer buffer;
+	private final int size; //number of individuals
+	private final int idsStart; //position of the ids column
+	private final int offsetsStart; //position of the offsets column
+	private final int dataStart; //position of the data column
+
+	private HistogramSnapshot(ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a histogram snapshot");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported histogram snapshot version " + buffer.getInt(4));
+		size = buffer.getInt(24);
+		idsStart = HEADER_SIZE;
+		offsetsStart = idsStart + (4 * size);
+		dataStart = offsetsStart + (8 * (size + 1));
+		if (dataStart > buffer.capacity())
+			throw new IOException("Truncated histogram snapshot");
+		//every individual's bins must lie inside the file, in order
+		long last = 0;
+		for (int i = 0; i <= size; i++)
+		{
+			long offset = buffer.getLong(offsetsStart + (8 * i));
+			if (offset < last || dataStart + offset > buffer.capacity())
+				throw new IOException("Truncated histogram snapshot");
+			last = offset;
+		}
+	}
+
+	/** Memory-maps a snapshot written by write()
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public static HistogramSnapshot open(File snapshotFile) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Histogram snapshot too large to map: " + snapshotFile);
+			//the mapping stays valid after the file is closed
+			return new HistogramSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/** Reads a snapshot written by write() onto the heap. Unlike open() nothing stays
+	 * mapped, so the file can be replaced while the snapshot is still in use; a mapped
+	 * file can't be on Windows until the mapping is garbage collected
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public static HistogramSnapshot read(File snapshotFile) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+		try
+		{
+			long length = file.length();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Histogram snapshot too large to read: " + snapshotFile);
+			byte[] bytes = new byte[(int) length];
+			file.readFully(bytes);
+			return new HistogramSnapshot(ByteBuffer.wrap(bytes));
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/** Returns true if snapshotFile is a snapshot of sourceFile as it is now. Only the
+	 * header is read, and without mapping the file, so a stale snapshot can be replaced.
+	 * The modification time isn't trusted, since copies and restores keep it; if the
+	 * length matches, the whole source is checksummed, which costs far less than parsing it
+	 */
+	public static boolean isCurrent(File snapshotFile, File sourceFile)
+	{
+		if (!snapshotFile.isFile())
+			return false;
+		try
+		{
+			DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile));
+			try
+			{
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					return false;
+				return in.readLong() == sourceFile.length() && in.readLong() == checksum(sourceFile);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	/** Writes a snapshot of every individual in input. It is written beside
+	 * snapshotFile then moved over it, so a run that dies part way through never
+	 * leaves a truncated snapshot behind, and one that fails removes what it wrote
+	 * @param input the individuals to write
+	 * @param sourceFile the file input was parsed from, or null if there isn't one
+	 * @param snapshotFile where to write the snapshot
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public static void write(IndividualIndex input, File sourceFile, File snapshotFile) throws IOException
+	{
+		InteractionPair[] pairs = input.toSortedArray();
+
+		//first pass: find where each individual's bins will start
+		long[] offsets = new long[pairs.length + 1];
+		SizeCounter counter = new SizeCounter();
+		for (int i = 0; i < pairs.length; i++)
+		{
+			DurationHistogram histogram = pairs[i].getHistogram();
+			counter.reset();
+			histogram.forEach(counter);
+			offsets[i + 1] = offsets[i] + varintSize(histogram.getBinCount()) + counter.bytes;
+		}
+		if (HEADER_SIZE + (12L * pairs.length) + 8 + offsets[pairs.length] > Integer.MAX_VALUE)
+			throw new IOException("Too many individuals for a single histogram snapshot");
+
+		long sourceLength = sourceFile == null ? 0 : sourceFile.length();
+		long sourceChecksum = sourceFile == null ? 0 : checksum(sourceFile);
+		File temporary = new File(snapshotFile.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temporary), 1 << 16));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(sourceLength);
+				out.writeLong(sourceChecksum);
+				out.writeInt(pairs.length);
+				for (int i = 0; i < pairs.length; i++)
+					out.writeInt(pairs[i].getID());
+				for (int i = 0; i < offsets.length; i++)
+					out.writeLong(offsets[i]);
+
+				//second pass: the bins themselves
+				BinWriter writer = new BinWriter(out);
+				for (int i = 0; i < pairs.length; i++)
+				{
+					DurationHistogram histogram = pairs[i].getHistogram();
+					writeVarint(out, histogram.getBinCount());
+					writer.reset();
+					histogram.forEach(writer);
+					if (writer.error != null)
+						throw writer.error;
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			temporary.delete();
+			throw e;
+		}
+	}
+
+	/** Returns the CRC32 of every byte of file **/
+	static long checksum(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				crc.update(buffer, 0, read);
+		}
+		finally
+		{
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/** Returns the number of individuals in the snapshot **/
+	public int size()
+	{
+		return size;
+	}
+
+	/** Returns the id of the i-th individual, in order of id **/
+	public int getID(int i)
+	{
+		return buffer.getInt(idsStart + (4 * i));
+	}
+
+	/** Returns the position of this id in the snapshot, or -1 if it isn't there **/
+	public int find(int id)
+	{
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int midId = getID(mid);
+			if (midId < id)
+				low = mid + 1;
+			else if (midId > id)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/** Visits every bin of the i-th individual in order of increasing duration **/
+	public void forEach(int i, DurationHistogram.BinVisitor visitor)
+	{
+		int[] position = {dataStart + (int) buffer.getLong(offsetsStart + (8 * i))};
+		int bins = readVarint(position);
+		int duration = 0;
+		for (int bin = 0; bin < bins; bin++)
+		{
+			duration += readVarint(position);
+			int count = readVarint(position);
+			visitor.bin(duration, count);
+		}
+	}
+
+	/** Decodes the i-th individual into a new InteractionPair **/
+	public InteractionPair load(int i)
+	{
+		InteractionPair pair = new InteractionPair(getID(i));
+		forEach(i, pair::addInteractions);
+		return pair;
+	}
+
+	/** Decodes every individual into a new index **/
+	public IndividualIndex toIndex()
+	{
+		IndividualIndex input = new IndividualIndex(size);
+		for (int i = 0; i < size; i++)
+			input.put(load(i));
+		return input;
+	}
+
+	/** Reads an unsigned varint at position[0], moving position[0] past it **/
+	private int readVarint(int[] position)
+	{
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = buffer.get(position[0]);
+			position[0]++;
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int varintSize(int value)
+	{
+		int bytes = 1;
+		while ((value & ~0x7F) != 0)
+		{
+			bytes++;
+			value >>>= 7;
+		}
+		return bytes;
+	}
+
+	/** Totals the encoded size of a histogram's bins **/
+	private static class SizeCounter implements DurationHistogram.BinVisitor
+	{
+		long bytes;
+		int lastDuration;
+
+		void reset()
+		{
+			bytes = 0;
+			lastDuration = 0;
+		}
+
+		@Override
+		public void bin(int duration, int count)
+		{
+			bytes += varintSize(duration - lastDuration) + varintSize(count);
+			lastDuration = duration;
+		}
+	}
+
+	/** Encodes a histogram's bins. BinVisitor can't throw, so errors are kept for the caller **/
+	private static class BinWriter implements DurationHistogram.BinVisitor
+	{
+		final DataOutputStream out;
+		IOException error;
+		int lastDuration;
+
+		BinWriter(DataOutputStream out)
+		{
+			this.out = out;
+		}
+
+		void reset()
+		{
+			lastDuration = 0;
+		}
+
+		@Override
+		public void bin(int duration, int count)
+		{
+			if (error != null)
+				return;
+			try
+			{
+				writeVarint(out, duration - lastDuration);
+				writeVarint(out, count);
+			}
+			catch (IOException e)
+			{
+				error = e;
+			}
+			lastDuration = duration;
+		}
+	}
+}
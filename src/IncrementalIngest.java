@@ -0,0 +1,374 @@
+/**Re-processes a contact file that only ever grows by appending, parsing just what
+ * was appended since the last run. A checkpoint in folder snapshot keeps:
+ *   - where the last run stopped (just past the last complete line) and the CRC32
+ *     of every byte before it;
+ *   - every individual's histogram, as a HistogramSnapshot beside the checkpoint,
+ *     whose length and CRC32 the checkpoint records so the two are only used together;
+ *   - every individual's chi squared result.
+ * On the next run the checksum of that prefix is checked, which reads the bytes
+ * again but costs far less than parsing them. If it still matches, only the new
+ * tail is parsed and merged in, and only the individuals the tail touched are refit.
+ * Everyone else keeps their saved result, which is the one a refit would give, since
+ * their histograms haven't changed. If the file was rewritten, truncated, or has no
+ * usable checkpoint, the whole file is parsed.
+ * A last line without a newline may still be being written, so it is left for the
+ * next run
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+public class IncrementalIngest
+{
+	public static final String EXTENSION = ".checkpoint";
+	private static final int MAGIC = 0x43504943; //"CPIC"
+	private static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 1 << 20; //bytes read from the file at a time
+
+	private final File checkpointFile;
+	private final IndividualIndex input; //everything up to end
+	private final IndividualIndex tail; //just what was parsed this run; these are the individuals to refit
+	private final Saved saved; //the checkpoint resumed from, or null if the whole file was parsed
+	private final long start; //where parsing began
+	private final long end; //just past the last complete line
+	private final long checksum; //CRC32 of bytes [0, end)
+	private final long records; //records parsed this run
+	private InteractionPair[] pairs; //input in order of id, once tested
+	private ChiSquaredResult[] results; //the result of each of pairs, or null if they weren't tested
+	private long refit; //the number of individuals tested again this run
+
+	private IncrementalIngest(File checkpointFile, IndividualIndex input, IndividualIndex tail, Saved saved,
+			long start, long end, long checksum, long records)
+	{
+		this.checkpointFile = checkpointFile;
+		this.input = input;
+		this.tail = tail;
+		this.saved = saved;
+		this.start = start;
+		this.end = end;
+		this.checksum = checksum;
+		this.records = records;
+	}
+
+	/** Parses whatever inputFile has gained since the checkpoint in checkpointFile, and
+	 * merges it into the individuals saved there
+	 * @throws IOException if the input cannot be read or is malformed
+	 */
+	public static IncrementalIngest read(File inputFile, File checkpointFile) throws IOException
+	{
+		if (GzipIngest.isGzip(inputFile)) //offsets into the compressed bytes mean nothing to the parser
+			throw new IOException("Incremental processing needs an uncompressed input: " + inputFile);
+		FileInputStream stream = new FileInputStream(inputFile);
+		try
+		{
+			FileChannel channel = stream.getChannel();
+			long end = lastLineEnd(channel);
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			CRC32 crc = new CRC32();
+
+			Saved saved = Saved.load(checkpointFile);
+			if (saved != null && (saved.offset > end || checksum(channel, 0, saved.offset, crc, buffer, null) 
+					!= saved.checksum))
+			{
+				saved = null; //not the file we checkpointed; start again
+				crc.reset();
+			}
+			long start = saved == null ? 0 : saved.offset;
+
+			long time = PipelineMetrics.start();
+			IndividualIndex tail = new IndividualIndex();
+			ContactParser parser = new ContactParser((id, partner, duration) -> 
+				tail.getOrCreate(id).addInteraction(duration));
+			checksum(channel, start, end, crc, buffer, parser);
+			parser.finish();
+			PipelineMetrics.addRecords(parser.getRecords());
+			PipelineMetrics.addBytesRead(end - start);
+
+			IndividualIndex input = tail;
+			if (saved != null)
+			{
+				input = saved.histograms.toIndex();
+				input.merge(tail);
+			}
+			PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, time);
+			return new IncrementalIngest(checkpointFile, input, tail, saved, start, end, crc.getValue(), 
+					parser.getRecords());
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/** Returns every individual, with everything up to the last complete line merged in **/
+	public IndividualIndex getInput()
+	{
+		return input;
+	}
+
+	/** Runs the chi squared test on every individual the new records touched, and reuses
+	 * the saved result for everyone else
+	 * @param levels the significance levels to count individuals at
+	 * @param parallel true to run the tests concurrently on every core
+	 * @param out where to print each individual's result, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 */
+	public ChiSquaredSummary test(double[] levels, boolean parallel, PrintStream out)
+	{
+		pairs = input.toSortedArray();
+		results = new ChiSquaredResult[pairs.length];
+		ChiSquaredTally tally = new ChiSquaredTally(levels);
+		LongAdder tested = new LongAdder();
+		IntStream indices = IntStream.range(0, pairs.length);
+		(parallel ? indices.parallel() : indices).forEach(i -> {
+			InteractionPair pair = pairs[i];
+			if (saved == null || tail.get(pair.getID()) != null)
+			{
+				results[i] = pair.runChiSquaredTest();
+				tested.increment();
+			}
+			else //untouched, so it must have been saved
+				results[i] = saved.results[Arrays.binarySearch(saved.ids, pair.getID())];
+			if (results[i] != null)
+				tally.record(results[i]);
+		});
+		refit = tested.sum();
+
+		for (int i = 0; out != null && i < results.length; i++)
+		{
+			if (results[i] != null)
+				out.println(results[i].toString());
+		}
+		return tally.summarize();
+	}
+
+	/** Saves every individual and their results, along with where parsing stopped, so
+	 * the next run can pick up from there. Call after test(). Each file is written
+	 * beside its final name then moved over it (HistogramSnapshot.write() does this
+	 * itself), histograms first. The checkpoint records the CRC32 of the histograms it
+	 * goes with, so a run that dies between the two moves leaves new histograms the old
+	 * checkpoint refuses to load, and the next run parses the whole file
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public void checkpoint() throws IOException
+	{
+		if (results == null)
+			throw new IllegalStateException("checkpoint() needs test() to have been run");
+		checkpointFile.getAbsoluteFile().getParentFile().mkdirs();
+		File histogramsFile = Saved.histogramsFile(checkpointFile);
+		HistogramSnapshot.write(input, null, histogramsFile);
+
+		File temporary = new File(checkpointFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temporary), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(end);
+			out.writeLong(checksum);
+			out.writeLong(histogramsFile.length());
+			out.writeLong(HistogramSnapshot.checksum(histogramsFile));
+			out.writeInt(pairs.length);
+			for (int i = 0; i < pairs.length; i++)
+			{
+				ChiSquaredResult result = results[i];
+				out.writeInt(pairs[i].getID());
+				out.writeInt(result == null ? 0 : result.getDegreesOfFreedom()); //0 for untested
+				out.writeDouble(result == null ? 0 : result.getChiSquared());
+				out.writeDouble(result == null ? 0 : result.getPValue());
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move(temporary.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/** Returns true if this run picked up from a checkpoint rather than parsing the whole file **/
+	public boolean isResumed()
+	{
+		return saved != null;
+	}
+
+	/** Returns the number of records parsed this run **/
+	public long getRecords()
+	{
+		return records;
+	}
+
+	/** Returns the number of bytes parsed this run **/
+	public long getBytesParsed()
+	{
+		return end - start;
+	}
+
+	/** Returns the number of individuals tested this run, rather than reused from the checkpoint **/
+	public long getRefit()
+	{
+		return refit;
+	}
+
+	/** Describes how much work this run did, eg for the summary **/
+	public String describe()
+	{
+		return (saved != null ? "Resumed at byte " + start : "No usable checkpoint; parsed from byte 0") + ": " 
+				+ records + " records in " + (end - start) + " bytes parsed, " + refit + " of " 
+				+ input.size() + " individuals refit";
+	}
+
+	/** Returns the position just past the last newline in channel, or 0 if it has none **/
+	private static long lastLineEnd(FileChannel channel) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+		long position = channel.size();
+		while (position > 0)
+		{
+			long from = Math.max(0, position - buffer.capacity());
+			buffer.clear();
+			buffer.limit((int) (position - from));
+			while (buffer.hasRemaining())
+			{
+				if (channel.read(buffer, from + buffer.position()) == -1)
+					break;
+			}
+			for (int i = buffer.position() - 1; i >= 0; i--)
+			{
+				if (buffer.get(i) == '\n')
+					return from + i + 1;
+			}
+			position = from;
+		}
+		return 0;
+	}
+
+	/** Adds bytes [start, end) of channel to crc, passing them on to parser as well if it
+	 * isn't null
+	 * @return the value of crc after them
+	 */
+	private static long checksum(FileChannel channel, long start, long end, CRC32 crc, ByteBuffer buffer,
+			ContactParser parser) throws IOException
+	{
+		long position = start;
+		while (position < end)
+		{
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if (read == -1)
+				throw new IOException("Input ended early at byte " + position);
+			crc.update(buffer.array(), 0, read);
+			if (parser != null)
+				parser.feed(buffer.array(), 0, read);
+			position += read;
+		}
+		return crc.getValue();
+	}
+
+	/** A checkpoint as written by checkpoint() **/
+	private static class Saved
+	{
+		final long offset; //just past the last line parsed
+		final long checksum; //CRC32 of bytes [0, offset)
+		final HistogramSnapshot histograms;
+		final int[] ids; //sorted
+		final ChiSquaredResult[] results; //null for individuals that weren't tested
+
+		Saved(long offset, long checksum, HistogramSnapshot histograms, int[] ids, ChiSquaredResult[] results)
+		{
+			this.offset = offset;
+			this.checksum = checksum;
+			this.histograms = histograms;
+			this.ids = ids;
+			this.results = results;
+		}
+
+		static File histogramsFile(File checkpointFile)
+		{
+			return new File(checkpointFile.getPath() + HistogramSnapshot.EXTENSION);
+		}
+
+		/** Loads the checkpoint in checkpointFile, or returns null if there isn't one or
+		 * it can't be used: unreadable, from another version, or with histograms from a
+		 * different run
+		 */
+		static Saved load(File checkpointFile)
+		{
+			File histogramsFile = histogramsFile(checkpointFile);
+			if (!checkpointFile.isFile() || !histogramsFile.isFile())
+				return null;
+			try
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(checkpointFile), 1 << 16));
+				try
+				{
+					if (in.readInt() != MAGIC || in.readInt() != VERSION)
+						return null;
+					long offset = in.readLong();
+					long checksum = in.readLong();
+					//histograms from another checkpoint would count a parsed tail twice, or not at all
+					if (in.readLong() != histogramsFile.length() 
+							|| in.readLong() != HistogramSnapshot.checksum(histogramsFile))
+						return null;
+					//read rather than mapped, since checkpoint() replaces the file this run
+					HistogramSnapshot histograms = HistogramSnapshot.read(histogramsFile);
+					int n = in.readInt();
+					if (n != histograms.size())
+						return null;
+					int[] ids = new int[n];
+					ChiSquaredResult[] results = new ChiSquaredResult[n];
+					for (int i = 0; i < n; i++)
+					{
+						ids[i] = in.readInt();
+						int degreesOfFreedom = in.readInt();
+						double chiSquared = in.readDouble();
+						double pValue = in.readDouble();
+						if (ids[i] != histograms.getID(i))
+							return null;
+						if (degreesOfFreedom > 0)
+							results[i] = new ChiSquaredResult(ids[i], chiSquared, degreesOfFreedom, pValue);
+					}
+					return new Saved(offset, checksum, histograms, ids, results);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			catch (IOException e)
+			{
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**Index of InteractionPairs keyed by the id of the individual they belong to.
+ * Uses open addressing with linear probing over a primitive int[] of keys, so
+ * finding an individual takes one probe in the common case and never boxes the id.
+ * Ids are kept in no particular order; use toSortedArray() when order matters
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+public class IndividualIndex
+{
+	private static final int DEFAULT_CAPACITY = 1024; //must be a power of two
+
+	private int[] ids; //the key for each slot
+	private InteractionPair[] pairs; //the value for each slot; null if the slot is empty
+	private int size;
+	private int mask; //capacity - 1, used in place of a modulus
+
+	public IndividualIndex()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/** @param expectedIndividuals roughly how many individuals will be stored **/
+	public IndividualIndex(int expectedIndividuals)
+	{
+		int capacity = Integer.highestOneBit(Math.max(expectedIndividuals, 8) * 2 - 1) * 2;
+		ids = new int[capacity];
+		pairs = new InteractionPair[capacity];
+		mask = capacity - 1;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/** Returns the InteractionPair for this id, or null if there isn't one **/
+	public InteractionPair get(int id)
+	{
+		int slot = hash(id) & mask;
+		while (pairs[slot] != null)
+		{
+			if (ids[slot] == id)
+				return pairs[slot];
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/** Returns the InteractionPair for this id, making and storing an empty one
+	 * if this individual has not been seen before
+	 */
+	public InteractionPair getOrCreate(int id)
+	{
+		int slot = hash(id) & mask;
+		while (pairs[slot] != null)
+		{
+			if (ids[slot] == id)
+				return pairs[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		InteractionPair pair = new InteractionPair(id);
+		ids[slot] = id;
+		pairs[slot] = pair;
+		size++;
+		if (size * 2 > pairs.length) //keep the load factor at or under 0.5
+			grow();
+		return pair;
+	}
+
+	/** Stores pair, replacing any InteractionPair with the same id **/
+	public void put(InteractionPair pair)
+	{
+		int id = pair.getID();
+		int slot = hash(id) & mask;
+		while (pairs[slot] != null)
+		{
+			if (ids[slot] == id)
+			{
+				pairs[slot] = pair;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		ids[slot] = id;
+		pairs[slot] = pair;
+		size++;
+		if (size * 2 > pairs.length)
+			grow();
+	}
+
+	/** Adds every individual's interactions in other to this index, making
+	 * InteractionPairs for individuals this index has not seen yet
+	 */
+	public void merge(IndividualIndex other)
+	{
+		for (int slot = 0; slot < other.pairs.length; slot++)
+		{
+			InteractionPair pair = other.pairs[slot];
+			if (pair != null)
+				getOrCreate(pair.getID()).merge(pair);
+		}
+	}
+
+	/** Returns every stored InteractionPair, in no particular order **/
+	public InteractionPair[] toArray()
+	{
+		InteractionPair[] all = new InteractionPair[size];
+		int i = 0;
+		for (int slot = 0; slot < pairs.length; slot++)
+		{
+			if (pairs[slot] != null)
+			{
+				all[i] = pairs[slot];
+				i++;
+			}
+		}
+		return all;
+	}
+
+	/** Returns every stored InteractionPair, sorted by id **/
+	public InteractionPair[] toSortedArray()
+	{
+		InteractionPair[] sorted = toArray();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private void grow()
+	{
+		int[] oldIds = ids;
+		InteractionPair[] oldPairs = pairs;
+		ids = new int[oldIds.length * 2];
+		pairs = new InteractionPair[oldPairs.length * 2];
+		mask = pairs.length - 1;
+
+		for (int i = 0; i < oldPairs.length; i++)
+		{
+			if (oldPairs[i] == null)
+				continue;
+			int slot = hash(oldIds[i]) & mask;
+			while (pairs[slot] != null)
+				slot = (slot + 1) & mask;
+			ids[slot] = oldIds[i];
+			pairs[slot] = oldPairs[i];
+		}
+	}
+
+	/** Spreads the bits of id so that sequential ids don't cluster **/
+	private static int hash(int id)
+	{
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -106,21 +106,6 @@ public class Interaction implements Comparable<Interaction>
 		return set;
 	}
 	
-	/** Calculates a Geometric probability given standard parameters
-	 * n, k, and P
-	 * @param k the number of bernoulli trials to perform
-	 * @param P the probability of success for the bernoulli trials
-	 * @return a point on the geometric probability distribution (PMF)
-	 */
-	private double calculateGeomProb(int k, int P)
-	{
-		double pToTheK = Math.pow(P, k);
-		double pComplementToTheK = Math.pow((1-P), k);
-		
-		return pToTheK * pComplementToTheK;
-	}
-	
-	
 	/** Formats an interaction's class data into that of a string **/
 	@Override
 	public String toString()
@@ -1,4 +1,9 @@
-/**Generates some interactions; used to perform Pearson's Chi^2 test
+/**Generates synthetic contact networks for load testing and for Pearson's Chi^2 test:
+ * N individuals with M contacts each, with durations drawn from a geometric or power
+ * law model. The sequence of all contacts is split into fixed-size shards, each with
+ * its own SplittableRandom split from a single seed before any work starts, so shards
+ * run in parallel and the output depends only on the seed. Contacts are streamed
+ * straight into histograms or to a contact file; nothing is held per contact
  * @author Madison Pickering
  * 
  * (Copyright 2020 Madison Pickering)
@@ -15,47 +20,231 @@
     along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-import java.util.Random;
-import java.util.TreeSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
-/** Generates some interactions
- */
 public class InteractionGenerator {
 	
-	private static final int MAX_INTER = 10; //number of interactions to generate
+	private static final long DEFAULT_SEED = 20201002L;
+	private static final int DEFAULT_CONTACTS = 1000; //contacts per individual for generateDataSet(n)
+	private static final int RECORDS_PER_SHARD = 1 << 18;
+	private static final int MAX_DURATION = 1 << 20; //caps the long tail of the power law
+	private static final double MIN_GEOMETRIC_P = 0.1; //each individual's p is drawn from [MIN, MAX)
+	private static final double MAX_GEOMETRIC_P = 0.5;
+	private static final double POWER_LAW_EXPONENT = 1.7; //from the equation y = 0.06 * (x ^ -1.7)
+	
+	/** The distribution interaction durations are drawn from **/
+	public enum DurationModel
+	{
+		GEOMETRIC, //each individual has their own p; duration + 1 is the number of bernoulli trials
+		POWER_LAW //P(duration = x) proportional to x ^ -1.7, for x >= 1
+	}
+	
+	/** Receives each generated contact **/
+	private interface ContactSink
+	{
+		void contact(int id, int partner, int duration);
+	}
 	
-	/**Generates InteractionPairs for n humans using generateInteraction
-	 * NOTE: DOES NOT GENERATE THE NUMBER OF INTERACTIONS OF THIS TYPE.
+	/** Generates n individuals with DEFAULT_CONTACTS geometric contacts each,
+	 * from a fixed seed
 	 * @param n the number of InteractionPairs to generate
 	 * @return fakeData the generated dataSet
 	 */
-	public static TreeSet<InteractionPair> generateDataSet(int n)
+	public static IndividualIndex generateDataSet(int n)
+	{
+		return generateDataSet(n, DEFAULT_CONTACTS, DEFAULT_SEED, DurationModel.GEOMETRIC);
+	}
+	
+	/** Generates the contacts of n individuals straight into their histograms,
+	 * in parallel
+	 * @param n the number of individuals, with ids 1 to n
+	 * @param contacts the number of contacts each individual has
+	 * @param seed the seed; the same seed always gives the same data set
+	 * @param model the distribution durations are drawn from
+	 * @return fakeData the generated dataSet
+	 */
+	public static IndividualIndex generateDataSet(int n, int contacts, long seed, DurationModel model)
+	{
+		SplittableRandom[] randoms = shardRandoms(n, contacts, seed);
+		//an individual's contacts may span shards, so each shard fills its own index
+		IndividualIndex[] shards = new IndividualIndex[randoms.length];
+		IntStream.range(0, randoms.length).parallel().forEach(shard -> {
+			IndividualIndex shardData = new IndividualIndex();
+			generateShard(shard, n, contacts, seed, model, randoms[shard], (id, partner, duration) -> 
+				shardData.getOrCreate(id).addInteraction(duration));
+			shards[shard] = shardData;
+		});
+		
+		IndividualIndex fakeData = new IndividualIndex(n);
+		for (int i = 0; i < shards.length; i++)
+			fakeData.merge(shards[i]);
+		return fakeData;
+	}
+	
+	/** Writes the contacts of n individuals to a contact file, one
+	 * "human_id1 human_id2 interaction_duration" record per line. Shards are
+	 * formatted in parallel, a window of them at a time, and written in order
+	 * @param outputFile the file to write
+	 * @param n the number of individuals, with ids 1 to n
+	 * @param contacts the number of contacts each individual has
+	 * @param seed the seed; the same seed always gives the same file
+	 * @param model the distribution durations are drawn from
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeContactFile(File outputFile, int n, int contacts, long seed, DurationModel model)
+			throws IOException
 	{
-		TreeSet<InteractionPair> fakeData = new TreeSet<>();
-		for (int i = 1; i <= 1; i++)
+		SplittableRandom[] randoms = shardRandoms(n, contacts, seed);
+		int window = Runtime.getRuntime().availableProcessors() * 2;
+		FileOutputStream out = new FileOutputStream(outputFile);
+		try
 		{
-			InteractionPair thisInter = new InteractionPair(i);
-			
-			//generate some interactions. Start by generating a duration
-			Random generator = new Random();
-			while (thisInter.getInteractions().size() < MAX_INTER)
+			for (int first = 0; first < randoms.length; first += window)
 			{
-				//*2 since approx 64% of data is within 2 of the mean, +1 since shouldnt generate a 0
-				int duration = (int) Math.round(( (Math.abs(generator.nextGaussian()) * 2 ) + 1));
-				System.out.println("Duration: " + duration);
-				//generate the probability of that duration using the equation y = 0.06 * (x ^ -1.7)
-				double probability = 0.06 * Math.pow(duration, -1.7);
-				//if underflow or overflow occurs, set probability to 0.0001
-				if (probability < 0 || probability > 1)
-					probability = 0.001;
-				
-				Interaction inter = new Interaction(duration);
-				inter.setProbability(probability);
-				thisInter.addInteraction(inter);
+				int start = first;
+				int end = Math.min(randoms.length, first + window);
+				RecordBuffer[] buffers = new RecordBuffer[end - start];
+				IntStream.range(start, end).parallel().forEach(shard -> {
+					RecordBuffer buffer = new RecordBuffer();
+					generateShard(shard, n, contacts, seed, model, randoms[shard], buffer);
+					buffers[shard - start] = buffer;
+				});
+				for (int i = 0; i < buffers.length; i++)
+					out.write(buffers[i].bytes, 0, buffers[i].size);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	/** Generates a contact file from the command line
+	 * Usage: java InteractionGenerator <output file> <individuals> <contacts each> [seed] [geometric|power-law]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.out.println("Usage: java InteractionGenerator <output file> <individuals> "
+					+ "<contacts each> [seed] [geometric|power-law]");
+			return;
+		}
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+		DurationModel model = args.length > 4 && args[4].equals("power-law") 
+				? DurationModel.POWER_LAW : DurationModel.GEOMETRIC;
+		writeContactFile(new File(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed, model);
+	}
+	
+	/** Splits one SplittableRandom per shard off a random seeded with seed, in shard
+	 * order, so that each shard's stream depends only on the seed
+	 */
+	private static SplittableRandom[] shardRandoms(int n, int contacts, long seed)
+	{
+		long records = (long) n * contacts;
+		int shards = (int) ((records + RECORDS_PER_SHARD - 1) / RECORDS_PER_SHARD);
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[shards];
+		for (int i = 0; i < shards; i++)
+			randoms[i] = root.split();
+		return randoms;
+	}
+	
+	/** Generates contacts [shard * RECORDS_PER_SHARD, (shard + 1) * RECORDS_PER_SHARD)
+	 * of the sequence of all contacts, in which individual i has contacts
+	 * [(i - 1) * contacts, i * contacts)
+	 */
+	private static void generateShard(int shard, int n, int contacts, long seed, DurationModel model,
+			SplittableRandom random, ContactSink sink)
+	{
+		long first = (long) shard * RECORDS_PER_SHARD;
+		long end = Math.min((long) n * contacts, first + RECORDS_PER_SHARD);
+		int id = 0;
+		double logOneMinusP = 0;
+		for (long record = first; record < end; record++)
+		{
+			int thisId = (int) (record / contacts) + 1;
+			if (thisId != id)
+			{
+				id = thisId;
+				logOneMinusP = Math.log(1 - individualP(seed, id));
 			}
 			
-			fakeData.add(thisInter);	
+			int partner = n == 1 ? id : 1 + random.nextInt(n - 1);
+			if (partner >= id && n > 1) //never pick themselves
+				partner++;
+			int duration;
+			if (model == DurationModel.GEOMETRIC)
+				duration = geometricDuration(random, logOneMinusP);
+			else
+				duration = powerLawDuration(random);
+			sink.contact(id, partner, duration);
+		}
+	}
+	
+	/** Returns individual id's geometric p. Depends only on the seed and id, so it is
+	 * the same in every shard the individual's contacts fall in
+	 */
+	private static double individualP(long seed, int id)
+	{
+		double u = new SplittableRandom(seed ^ (id * 0x9E3779B97F4A7C15L)).nextDouble();
+		return MIN_GEOMETRIC_P + (u * (MAX_GEOMETRIC_P - MIN_GEOMETRIC_P));
+	}
+	
+	/** Draws a duration such that duration + 1 ~ Geometric(p), by inversion **/
+	private static int geometricDuration(SplittableRandom random, double logOneMinusP)
+	{
+		double u = 1.0 - random.nextDouble(); //in (0, 1], so the log is finite
+		double trials = Math.ceil(Math.log(u) / logOneMinusP);
+		return (int) Math.min(MAX_DURATION, Math.max(1, trials)) - 1;
+	}
+	
+	/** Draws a duration x >= 1 with P(x) roughly proportional to x ^ -1.7, by inverting
+	 * the continuous Pareto distribution and rounding down
+	 */
+	private static int powerLawDuration(SplittableRandom random)
+	{
+		double u = 1.0 - random.nextDouble();
+		double x = Math.pow(u, -1.0 / (POWER_LAW_EXPONENT - 1));
+		return (int) Math.min(MAX_DURATION, Math.floor(x));
+	}
+	
+	/** Formats contact records into a growable byte array **/
+	private static class RecordBuffer implements ContactSink
+	{
+		byte[] bytes = new byte[1 << 16];
+		int size;
+		
+		@Override
+		public void contact(int id, int partner, int duration)
+		{
+			if (size + 40 > bytes.length) //three ints, two tabs and a newline always fit in 40
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			writeInt(id);
+			bytes[size++] = '\t';
+			writeInt(partner);
+			bytes[size++] = '\t';
+			writeInt(duration);
+			bytes[size++] = '\n';
+		}
+		
+		/** Writes the decimal digits of a non-negative int **/
+		private void writeInt(int value)
+		{
+			int digits = 1;
+			for (int rest = value / 10; rest != 0; rest /= 10)
+				digits++;
+			size += digits;
+			for (int i = size - 1; i >= size - digits; i--)
+			{
+				bytes[i] = (byte) ('0' + (value % 10));
+				value /= 10;
+			}
 		}
-		return fakeData;
 	}
 }
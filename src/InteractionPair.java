@@ -13,24 +13,30 @@
     You should have received a copy of the GNU General Public License
     along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
  */
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.SortedSet;
 import java.util.TreeSet;
 
 public class InteractionPair implements Comparable<InteractionPair>
 {
-	private static final int OBSERVATION_THRESHOLD = 3; //must have at least this num of observations
-														//to be added to the observed[] array
+	static final int OBSERVATION_THRESHOLD = 3; //must have at least this num of observations
+												//to be added to the observed[] array
+	static final long MIN_SAMPLE_SIZE = 250; //the fewest observed CPIs the chi squared test is run on
+	static final int MIN_BINS = 3; //the fewest observed bins, for one degree of freedom
+	private static final int MAX_RECURRENCE_STEPS = 8; //gaps between bins longer than this use Math.pow
+	//scratch space for the observed bins, one per thread so that individuals can be tested concurrently
+	private static final ThreadLocal<ObservedBins> observedScratch = ThreadLocal.withInitial(ObservedBins::new);
+	
 	private int id; //the id of this individual
-	private TreeSet<Interaction> interactions;
-	private Interaction[] observed;
-	private Interaction[] ideal;
+	private DurationHistogram interactions; //number of interactions of each duration
+	//running totals over the durations seen more than OBSERVATION_THRESHOLD times,
+	//kept up to date as interactions are added so the fit never has to re-scan them
+	private int observedBins;
+	private long observedSampleSize;
+	private long observedTrials; //sum of <#interactions> * <duration + 1>
 	
 	public InteractionPair(int id)
 	{
 		this.id = id;
-		interactions = new TreeSet<>();
+		interactions = new DurationHistogram();
 	}
 	
 	public int getID()
@@ -38,116 +44,148 @@ public class InteractionPair implements Comparable<InteractionPair>
 		return id;
 	}
 	
-	public TreeSet<Interaction> getInteractions()
+	/** Returns the histogram of this individual's interactions. For reading only;
+	 * record interactions through addInteraction() so the running totals stay current
+	 */
+	public DurationHistogram getHistogram()
 	{
 		return interactions;
 	}
 	
+	/** Returns the number of interactions recorded for this individual **/
+	public long getTotalInteractions()
+	{
+		return interactions.getTotal();
+	}
+	
+	/** Returns the number of interactions in durations seen more than
+	 * OBSERVATION_THRESHOLD times; the sample size of the chi squared test
+	 */
+	public long getObservedSampleSize()
+	{
+		return observedSampleSize;
+	}
+	
+	/** Returns the current MLE estimate of p, from the running totals, or NaN
+	 * if no duration has been seen more than OBSERVATION_THRESHOLD times yet
+	 */
+	public double getEstimatedP()
+	{
+		if (observedTrials == 0)
+			return Double.NaN;
+		return (double) observedSampleSize / observedTrials;
+	}
+	
+	/** Returns this individual's interactions as a set of Interactions, one per
+	 * duration. The set is built from the histogram on every call, so changes made
+	 * to it are not reflected in this InteractionPair
+	 * @return the set of all interactions taken by this individual, with probabilities
+	 */
+	public TreeSet<Interaction> getInteractions()
+	{
+		TreeSet<Interaction> set = new TreeSet<>();
+		interactions.forEach((duration, count) -> {
+			Interaction inter = new Interaction(duration);
+			inter.setNumInteractions(count);
+			inter.setProbability(getProbability(duration));
+			set.add(inter);
+		});
+		return set;
+	}
+	
+	/** Returns the probability of this individual having an interaction of this
+	 * duration, given every interaction recorded so far. Probability = 
+	 * <#interactions of this length> / <number of total interactions>
+	 */
+	public double getProbability(int duration)
+	{
+		long total = interactions.getTotal();
+		if (total == 0)
+			return 0;
+		return (double) interactions.getCount(duration) / total;
+	}
+	
 	/**Performs Pearson's Chi Squared test for goodness of fit
 	 * Does the following:
-	 * 1. migrates interactions to observed, using OBSERVATION_THRESHOLD to do so
+	 * 1. gathers interactions into observed, using OBSERVATION_THRESHOLD to do so
 	 * 2. estimates the parameter P for the observed values
 	 * 3. uses the observed parameter to generate ideal counts according to a geometric
 	 *    probability distribution
 	 * 4. calculates the chi squared value from the ideal and observed counts
 	 * 5. calculates the degrees of freedom
 	 * 6. Uses the calculated chi squared value and degrees of freedom to find the p-value
-	 * 	  (if any) to the finest degree of granularity at which we can fail to reject the null 
-	 *    hypothesis. Updates chiSquared, pValue, and the appropriate counter (notRejected_x)
-	 *    in Runner.
+	 * Only touches this InteractionPair, so different individuals can be tested concurrently
+	 * @return the result of the test, or null if there were too few CPIs or bins to run it
 	 */
-	public void runChiSquaredTest()
+	public ChiSquaredResult runChiSquaredTest()
 	{
-		//step 1
-		generateObserved();
-		
-		//check to make sure that theres over 250 CPIs recorded
-		int sampleSize = 0;
-		for (int i = 0; i < observed.length; i++)
+		//the running totals tell us if there are too few CPIs without gathering anything
+		if (observedSampleSize < MIN_SAMPLE_SIZE || observedBins < MIN_BINS)
 		{
-			Interaction inter = observed[i];
-			sampleSize += inter.getInteractions();
-//			System.out.println(inter.toString());
+			PipelineMetrics.countIndividual(false);
+			return null;
 		}
-//		System.out.println("sample size: " + sampleSize);
-		//if there aren't, return
-		if (sampleSize < 250)
-			return;
-
-		//else
-		Runner.numberOfCPIs++;
-		
-		//step 2
-		double p = estimateP();
-		
-		//test
-//		System.out.println("p: " + p);
-		
-		//step 3
-		generateIdeal(sampleSize, p);
-		
-		//test
-//		System.out.println("Printing ideal: ");
-//		for (int i = 0; i < ideal.length; i++)
-//			System.out.println(ideal[i].toString());
-		
-		//step 4	
-		double chiSq = calculateChiSq();
 		
+		//step 1 - adds an interaction if it has been observed more than OBSERVATION_THRESHOLD times
+		long start = PipelineMetrics.start();
+		ObservedBins observed = observedScratch.get();
+		observed.fill(interactions, OBSERVATION_THRESHOLD);
+		PipelineMetrics.stop(PipelineMetrics.Stage.GATHER, start);
+		return runChiSquaredTest(id, observed);
+	}
 	
-		//step 5
-		int degreesOfFreedom = observed.length - 2; //using the formula k - p - 1
-		
-		//step 6 - determine p val
-		double[] pValues = Runner.pValues[degreesOfFreedom - 1]; //minus one bc index 0 has degree of freedom 1
-		double chiThous = pValues[2]; //0.001
-		double chiHund = pValues[1];  //0.01
-		double chiFive = pValues[0];  //0.05
-		
-		System.out.println("id " + id + " Chi sq: " + chiSq + " degrees of freedom: " + degreesOfFreedom);
-		
-		if (chiSq < chiThous)
-			Runner.notRejected_thous++;
-		else if (chiSq < chiHund)
-			Runner.notRejected_hund++;
-		else if (chiSq < chiFive)
-			Runner.notRejected_fiveHund++;
-		else
-			Runner.rejected++;
-		
+	/** Fits every candidate distribution to this individual's observed bins, and
+	 * scores them against each other. The bins are gathered once for all of them
+	 * @param fitters the candidates; see ModelSelector.defaultFitters()
+	 * @return the comparison, or null if there were too few CPIs or bins to make it
+	 */
+	public ModelComparison compareModels(DistributionFitter[] fitters)
+	{
+		if (observedSampleSize < MIN_SAMPLE_SIZE || observedBins < MIN_BINS)
+			return null;
+		ObservedBins observed = observedScratch.get();
+		observed.fill(interactions, OBSERVATION_THRESHOLD);
+		return ModelSelector.compare(id, observed, fitters);
 	}
 	
-	/**Loops through interactions and adds an interaction with no associated probability
-	 * to observed. Adds an interaction if the interaction has been observed at least
-	 * OBSERVATION_THRESHOLD number of times.
-	 * NOTE: we say that for an interacton of duration x, the x + 1th trial was
-	 *  successful. Thus we increment duration by 1, since it is analogous to the number of
-	 *  bernoulli experiments performed
+	/** Performs steps 2 - 6 of Pearson's Chi Squared test on bins that have
+	 * already been gathered. Leaves the ideal frequencies in observed
+	 * @param id the id of the individual the bins belong to
+	 * @param observed the individual's observed bins
+	 * @return the result of the test, or null if there were too few CPIs or bins to run it
 	 */
-	private void generateObserved()
+	public static ChiSquaredResult runChiSquaredTest(int id, ObservedBins observed)
 	{
-		//copy all interactions observed > OBSERVATION_THRESHOLD times to observed
-		ArrayList<Interaction> inter = new ArrayList<>();
-		Iterator<Interaction> iter = interactions.iterator();
-		while (iter.hasNext())
+		//check to make sure that theres at least MIN_SAMPLE_SIZE CPIs recorded
+		long sampleSize = observed.getSampleSize();
+		if (sampleSize < MIN_SAMPLE_SIZE)
 		{
-			Interaction thisInter = iter.next();
-			if (thisInter.getInteractions() > OBSERVATION_THRESHOLD)
-				inter.add(thisInter);
+			PipelineMetrics.countIndividual(false);
+			return null;
 		}
+
+		//step 2
+		long start = PipelineMetrics.start();
+		double p = estimateP(observed);
 		
-		//make a deep copy
-		observed = new Interaction[inter.size()];
-		for (int i = 0; i < inter.size(); i++)
+		//steps 3 & 4, in a single pass over observed
+		double chiSq = calculateChiSq(observed, sampleSize, p);
+		PipelineMetrics.stop(PipelineMetrics.Stage.FIT, start);
+		
+		//step 5
+		int degreesOfFreedom = observed.size() - 2; //using the formula k - p - 1
+		if (degreesOfFreedom < 1) //too few bins to say anything
 		{
-			Interaction thisInter = inter.get(i);
-			int duration = thisInter.getDuration() + 1;
-			double numInteractions = thisInter.getInteractions();
-			Interaction newInter = new Interaction(duration);
-			newInter.setNumInteractions(numInteractions);
-			observed[i] = newInter;
+			PipelineMetrics.countIndividual(false);
+			return null;
 		}
 		
+		//step 6 - determine p val
+		start = PipelineMetrics.start();
+		double pValue = ChiSquaredDistribution.pValue(chiSq, degreesOfFreedom);
+		PipelineMetrics.stop(PipelineMetrics.Stage.P_VALUE, start);
+		PipelineMetrics.countIndividual(true);
+		return new ChiSquaredResult(id, chiSq, degreesOfFreedom, pValue);
 	}
 	
 	/** Estimates the probability p, the probability of a positive outcome
@@ -157,86 +195,61 @@ public class InteractionPair implements Comparable<InteractionPair>
 	 * 
 	 * @return an MLE estimate of the probability p of Geometric(p)
 	 */
-	private double estimateP()
+	static double estimateP(ObservedBins observed)
 	{
-		double numDataPts = 0;
-		double numTrials = 0;
-		for (int i = 0; i < observed.length; i++)
-		{
-			Interaction inter = observed[i];
-			int interTrials = inter.getDuration();
-			double numThisInter = inter.getInteractions();
-			numDataPts += numThisInter;
-			numTrials += (numThisInter * interTrials);
-		}
-		
+		double numDataPts = observed.getSampleSize();
+		double numTrials = observed.getNumTrials();
 		double p = numDataPts / numTrials;
 		return p;
 	}
 	
-	/** Generates ideal frequencies based on the results of observed
-	 * Ideal frequency = P(Geom) * sample size
-	 */
-	private void generateIdeal(double sampleSize, double p)
-	{
-		ideal = new Interaction[observed.length];
-		for (int i = 0; i < observed.length; i++)
-		{
-			Interaction inter = observed[i];
-			int k = inter.getDuration(); //since its observed it will be an int
-			double prob = generateGeomPoint(k, p);
-			double frequency = prob * sampleSize;
-			
-			Interaction idealInter = new Interaction(k);
-			idealInter.setNumInteractions(frequency);
-			ideal[i] = idealInter;
-		}
-	}
-	
-	/** Generates a point on a geometric distribution according
-	 * to its PDF
-	 * 
-	 * @param k the number of bernoulli trials
-	 * @param p the probability of success for each bernoulli trial
-	 * @return Geom(p), the probability of a point on the geometric distribution
-	 */
-	private double generateGeomPoint(double k, double p)
-	{
-		double oneMinusP = 1.0 - p;
-		double oneMinusToTheK = Math.pow(oneMinusP, k - 1);
-		return (oneMinusToTheK * p);
-	}
-	
-	/** Uses the frequency arrays observed[] and ideal[] to generate the
-	 * chi squared value for the data
+	/** Generates ideal frequencies based on the results of observed, and uses
+	 * them to generate the chi squared value for the data in the same pass.
+	 * Ideal frequency = P(Geom) * sample size, where P(Geom) = (1-p)^(k-1) * p.
+	 * Rather than a Math.pow per bin, (1-p)^(k-1) is carried from one bin to the
+	 * next by multiplying by (1-p) once for each step in duration. The ideal
+	 * frequencies are left in observed
 	 * @return chiSq the chi squared value for the data
 	 */
-	private double calculateChiSq()
+	static double calculateChiSq(ObservedBins observed, double sampleSize, double p)
 	{
+		double oneMinusP = 1.0 - p;
+		int lastK = 1;
+		double oneMinusToTheK = 1.0; //(1-p)^(lastK - 1)
 		double chiSq = 0;
-		for (int i = 0; i < observed.length; i++)
+		for (int i = 0; i < observed.size(); i++)
 		{
-			Interaction obsInter = observed[i];
-			double obsFreq = obsInter.getInteractions();
+			int k = observed.getTrials(i); //observed is sorted, so k >= lastK
+			int steps = k - lastK;
+			if (steps > MAX_RECURRENCE_STEPS)
+				oneMinusToTheK *= Math.pow(oneMinusP, steps);
+			else
+			{
+				for (int j = 0; j < steps; j++)
+					oneMinusToTheK *= oneMinusP;
+			}
+			lastK = k;
 			
-			Interaction idealInter = ideal[i];
-			double idealFreq = idealInter.getInteractions();
+			double idealFreq = oneMinusToTheK * p * sampleSize;
+			observed.setIdeal(i, idealFreq);
 			
-			double sqdDiff = Math.pow((obsFreq - idealFreq), 2);
-			double thisChi = sqdDiff / idealFreq;
-			chiSq += thisChi;
+			double diff = observed.getCount(i) - idealFreq;
+			chiSq += (diff * diff) / idealFreq;
 		}
 		
 		return chiSq;
 	}
 	
-	/**Calls Interaction.setProbabilities to set the probabilities of 
-	 * this set of interactions
+	/**Sets the probabilities of this set of interactions. Probability = 
+	 * <#interactions of this length> / <number of total interactions>
+	 * Probabilities are kept current as interactions are added, so this only
+	 * checks that there is something to set them for
 	 */
 	public void setInteractionsProbabilities()
 	{
-		TreeSet<Interaction> prob = Interaction.setProbabilites(interactions);
-		interactions = prob;
+		//check to see if we can set interactions first
+		if (interactions.getBinCount() == 0)
+			System.out.println("Poorly specified interaction; size == 0");
 	}
 	
 	/** Adds an interaction of this duration to this individuals
@@ -247,40 +260,45 @@ public class InteractionPair implements Comparable<InteractionPair>
 	 */
 	public void addInteraction(int interactionDuration)
 	{
-		//check to see if an interaction of this duration exists
-		Interaction inter = new Interaction(interactionDuration);
-		
-		boolean contains = interactions.contains(inter);
-		if (contains)
-		{
-			//find the interaction and update the number of interactions of that duration
-			Interaction exclude = new Interaction(interactionDuration + 1);
-			SortedSet<Interaction> thisInter = interactions.subSet(inter, exclude);
-			if (thisInter.size() != 1)
-				System.out.println("Error in InteractionPair addInteraction() - more than one interaction");
-			Interaction exists = thisInter.first();
-			
-			exists.incrementInteractions();
-			
-			//replace the object with the old value with the obj with the new value
-			interactions.remove(inter);
-			interactions.add(exists);
-		}
-		else //else, add the interaction
-			interactions.add(inter);
-		
+		addInteractions(interactionDuration, 1);
 	}
 	
-	/** Adds an interaction of this duration to this individuals
-	 * list of interactions, making no attempt to update counts
-	 * NOTE: this is to be used by InteractionGenerator only
+	/** Adds count interactions of this duration, updating the running totals
+	 * @param interactionDuration the duration of these interactions
+	 * @param count the number of interactions to add
 	 */
-	public void addInteraction(Interaction inter)
+	public void addInteractions(int interactionDuration, int count)
 	{
-		interactions.add(inter);
+		int after = interactions.add(interactionDuration, count);
+		int before = after - count;
+		int added = newlyObserved(before, after);
+		if (added == 0)
+			return;
+		if (before <= OBSERVATION_THRESHOLD) //just crossed the threshold
+			observedBins++;
+		observedSampleSize += added;
+		observedTrials += added * (interactionDuration + 1L); //number of bernoulli trials
+	}
+	
+	/** Returns how many interactions a bin adds to the observed running totals when
+	 * its count goes from before to after. Shared with OffHeapHistogramStore so both
+	 * keep the same totals
+	 */
+	static int newlyObserved(int before, int after)
+	{
+		if (before > OBSERVATION_THRESHOLD) //already observed; just add these
+			return after - before;
+		if (after > OBSERVATION_THRESHOLD) //just crossed the threshold; add the whole bin
+			return after;
+		return 0;
+	}
+	
+	/** Adds every interaction of other to this individual **/
+	public void merge(InteractionPair other)
+	{
+		other.interactions.forEach(this::addInteractions);
 	}
 	
-
 	/** Returns -1 if self < other, 0 if self == other, 1 if self > other
 	 * Two interactions are equal IF their IDS are equal;
 	 * interactions are compared based on id value
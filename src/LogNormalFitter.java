@@ -0,0 +1,115 @@
+/**Fits a log-normal, discretized so that P(k) is the mass of LogNormal(mu, sigma)
+ * between k - 0.5 and k + 0.5, renormalized over k >= 1. mu and sigma are the mean and
+ * standard deviation of ln(k), which need nothing from the bins but their summed logs
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class LogNormalFitter implements DistributionFitter
+{
+	private static final double MIN_VARIANCE = 1e-12; //below this, every interaction has the same k
+
+	private double mu;
+	private double sigma;
+	private double logNormalizer; //ln of the mass of k >= 1, ie above 0.5
+	//the upper bound of the last bin scored, so that the next bin along can reuse its tails
+	private int lastK;
+	private double lastHigh;
+	private double lastHighSmallTail; //smallTail(lastHigh)
+
+	@Override
+	public String getName()
+	{
+		return "log-normal";
+	}
+
+	@Override
+	public int getNumParameters()
+	{
+		return 2;
+	}
+
+	@Override
+	public boolean fit(ObservedBins observed)
+	{
+		double n = observed.getSampleSize();
+		mu = observed.getSumLogTrials() / n;
+		double variance = observed.getSumSquaredLogTrials() / n - mu * mu;
+		if (variance < MIN_VARIANCE)
+			return false;
+		sigma = Math.sqrt(variance);
+		logNormalizer = Math.log(upperTail(standardize(0.5)));
+		lastK = -1;
+		return true;
+	}
+
+	@Override
+	public double logProbability(ObservedBins observed, int i)
+	{
+		int k = observed.getTrials(i);
+		double low;
+		double lowSmallTail;
+		if (k == lastK + 1) //the bins are adjacent, so this bin starts where the last one ended
+		{
+			low = lastHigh;
+			lowSmallTail = lastHighSmallTail;
+		}
+		else
+		{
+			low = standardize(k - 0.5);
+			lowSmallTail = smallTail(low);
+		}
+		double high = standardize(k + 0.5);
+		double highSmallTail = smallTail(high);
+		lastK = k;
+		lastHigh = high;
+		lastHighSmallTail = highSmallTail;
+
+		//take the difference between whichever tails are small, so it keeps its precision
+		double mass;
+		if (low >= 0) //P(Z > low) - P(Z > high)
+			mass = lowSmallTail - highSmallTail;
+		else if (high <= 0) //P(Z < high) - P(Z < low)
+			mass = highSmallTail - lowSmallTail;
+		else
+			mass = 1 - highSmallTail - lowSmallTail;
+		return Math.log(mass) - logNormalizer;
+	}
+
+	@Override
+	public String describe()
+	{
+		return "mu=" + mu + " sigma=" + sigma;
+	}
+
+	/** Returns the z score of ln(x) **/
+	private double standardize(double x)
+	{
+		return (Math.log(x) - mu) / sigma;
+	}
+
+	/** Returns P(Z > z) for a standard normal Z **/
+	private static double upperTail(double z)
+	{
+		return z >= 0 ? smallTail(z) : 1 - smallTail(z);
+	}
+
+	/** Returns the smaller of P(Z > z) and P(Z < z) for a standard normal Z, 
+	 * using erfc(x) = Q(1/2, x^2)
+	 */
+	private static double smallTail(double z)
+	{
+		return 0.5 * ChiSquaredDistribution.regularizedGammaQ(0.5, z * z / 2);
+	}
+}
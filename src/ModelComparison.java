@@ -0,0 +1,76 @@
+/**The fits of every candidate distribution to one individual's observed bins
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class ModelComparison
+{
+	private final int id; //the id of the individual
+	private final ModelFit[] fits; //fits[m] = the fit of candidate m, or null if it could not be fit
+	private final int best; //the index of the fit with the lowest AIC
+
+	public ModelComparison(int id, ModelFit[] fits)
+	{
+		this.id = id;
+		this.fits = fits.clone();
+		int bestIndex = -1;
+		for (int m = 0; m < fits.length; m++)
+		{
+			if (fits[m] != null && (bestIndex < 0 || fits[m].getAIC() < fits[bestIndex].getAIC()))
+				bestIndex = m;
+		}
+		best = bestIndex;
+	}
+
+	public int getID()
+	{
+		return id;
+	}
+
+	public int getNumCandidates()
+	{
+		return fits.length;
+	}
+
+	/** Returns the fit of candidate m, or null if it could not be fit **/
+	public ModelFit getFit(int m)
+	{
+		return fits[m];
+	}
+
+	/** Returns the index of the candidate with the lowest AIC, or -1 if none could be fit **/
+	public int getBestIndex()
+	{
+		return best;
+	}
+
+	/** Returns the fit with the lowest AIC, or null if none could be fit **/
+	public ModelFit getBest()
+	{
+		return best < 0 ? null : fits[best];
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder("id " + id + " best fit: ");
+		out.append(best < 0 ? "none" : fits[best].getName());
+		for (int m = 0; m < fits.length; m++)
+		{
+			if (fits[m] != null)
+				out.append("\n\t").append(fits[m].toString());
+		}
+		return out.toString();
+	}
+}
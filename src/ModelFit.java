@@ -0,0 +1,92 @@
+/**The fit of one candidate distribution to one individual's observed bins
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class ModelFit
+{
+	private final String name; //the name of the distribution
+	private final String parameters; //the fitted parameters, eg "p=0.25"
+	private final int numParameters;
+	private final double logLikelihood; //of the observed bins under the fit
+	private final double chiSquared;
+	private final int degreesOfFreedom;
+	private final double pValue; //NaN if there are too few bins for any degrees of freedom
+
+	public ModelFit(String name, String parameters, int numParameters, double logLikelihood,
+			double chiSquared, int degreesOfFreedom, double pValue)
+	{
+		this.name = name;
+		this.parameters = parameters;
+		this.numParameters = numParameters;
+		this.logLikelihood = logLikelihood;
+		this.chiSquared = chiSquared;
+		this.degreesOfFreedom = degreesOfFreedom;
+		this.pValue = pValue;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getParameters()
+	{
+		return parameters;
+	}
+
+	public int getNumParameters()
+	{
+		return numParameters;
+	}
+
+	public double getLogLikelihood()
+	{
+		return logLikelihood;
+	}
+
+	/** Returns Akaike's information criterion, 2 * <#parameters> - 2 * ln(likelihood); lower is better **/
+	public double getAIC()
+	{
+		return 2 * numParameters - 2 * logLikelihood;
+	}
+
+	public double getChiSquared()
+	{
+		return chiSquared;
+	}
+
+	public int getDegreesOfFreedom()
+	{
+		return degreesOfFreedom;
+	}
+
+	public double getPValue()
+	{
+		return pValue;
+	}
+
+	/** Returns true if the chi squared test does not reject this fit at significance level alpha **/
+	public boolean notRejected(double alpha)
+	{
+		return degreesOfFreedom >= 1 && chiSquared < ChiSquaredDistribution.criticalValue(degreesOfFreedom, alpha);
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + " (" + parameters + ") Chi sq: " + chiSquared + " degrees of freedom: " + degreesOfFreedom 
+				+ " AIC: " + getAIC();
+	}
+}
@@ -0,0 +1,210 @@
+/**Fits every candidate distribution to each individual and picks the best by AIC.
+ * The bins are gathered from the histogram once per individual and summarized in one
+ * pass; each candidate fits from those sums (the negative binomial also walks the bins),
+ * and then one more pass over the bins scores every candidate at once
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+public class ModelSelector
+{
+	public static final double DEFAULT_ALPHA = 0.05; //significance level to count non rejections at
+	private static final int MAX_ROOT_ITERATIONS = 200;
+	private static final double ROOT_TOLERANCE = 1e-12; //relative width of the bracket to stop at
+
+	/** Returns a new instance of each default candidate **/
+	public static DistributionFitter[] defaultFitters()
+	{
+		return new DistributionFitter[] {new GeometricFitter(), new ZetaFitter(), 
+				new NegativeBinomialFitter(), new LogNormalFitter()};
+	}
+
+	/** Compares the default candidates for every individual in input
+	 * @param input the individuals to compare
+	 * @param parallel true to compare individuals concurrently on every core
+	 * @param out where to print each individual's comparison, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be compared
+	 */
+	public static ModelSummary run(IndividualIndex input, boolean parallel, PrintStream out)
+	{
+		return run(input, parallel, ModelSelector::defaultFitters, DEFAULT_ALPHA, out);
+	}
+
+	/** Compares candidate distributions for every individual in input
+	 * @param input the individuals to compare
+	 * @param parallel true to compare individuals concurrently on every core
+	 * @param candidates makes a new instance of each candidate; called once per thread
+	 * @param alpha the significance level to count non rejections at
+	 * @param out where to print each individual's comparison, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be compared
+	 */
+	public static ModelSummary run(IndividualIndex input, boolean parallel, Supplier<DistributionFitter[]> candidates,
+			double alpha, PrintStream out)
+	{
+		ThreadLocal<DistributionFitter[]> fitters = ThreadLocal.withInitial(candidates);
+		InteractionPair[] pairs = input.toSortedArray();
+		ModelComparison[] results = new ModelComparison[pairs.length];
+		String[] names = names(fitters.get());
+		LongAdder compared = new LongAdder();
+		LongAdder[] best = newAdders(names.length);
+		LongAdder[] notRejected = newAdders(names.length);
+
+		IntStream indexes = IntStream.range(0, pairs.length);
+		if (parallel)
+			indexes = indexes.parallel();
+		indexes.forEach(i -> {
+			ModelComparison result = pairs[i].compareModels(fitters.get());
+			if (result == null)
+				return;
+			results[i] = result;
+			compared.increment();
+			if (result.getBestIndex() >= 0)
+				best[result.getBestIndex()].increment();
+			for (int m = 0; m < names.length; m++)
+			{
+				ModelFit fit = result.getFit(m);
+				if (fit != null && fit.notRejected(alpha))
+					notRejected[m].increment();
+			}
+		});
+
+		for (int i = 0; out != null && i < results.length; i++)
+		{
+			if (results[i] != null)
+				out.println(results[i].toString());
+		}
+		return new ModelSummary(compared.sum(), names, sums(best), alpha, sums(notRejected));
+	}
+
+	/** Fits every candidate to observed and scores them against each other
+	 * @param id the id of the individual the bins belong to
+	 * @param observed the individual's observed bins
+	 * @param fitters the candidates; their last fits are overwritten
+	 * @return the comparison, with a null fit for each candidate that could not be fit
+	 */
+	public static ModelComparison compare(int id, ObservedBins observed, DistributionFitter[] fitters)
+	{
+		observed.summarize();
+		int numModels = fitters.length;
+		boolean[] fitted = new boolean[numModels];
+		for (int m = 0; m < numModels; m++)
+			fitted[m] = fitters[m].fit(observed);
+
+		//score every fitted candidate in one pass over the bins
+		double sampleSize = observed.getSampleSize();
+		double[] logLikelihood = new double[numModels];
+		double[] chiSq = new double[numModels];
+		for (int i = 0; i < observed.size(); i++)
+		{
+			int count = observed.getCount(i);
+			for (int m = 0; m < numModels; m++)
+			{
+				if (!fitted[m])
+					continue;
+				double logP = fitters[m].logProbability(observed, i);
+				logLikelihood[m] += count * logP;
+				double idealFreq = Math.exp(logP) * sampleSize;
+				double diff = count - idealFreq;
+				chiSq[m] += (diff * diff) / idealFreq;
+			}
+		}
+
+		ModelFit[] fits = new ModelFit[numModels];
+		for (int m = 0; m < numModels; m++)
+		{
+			if (!fitted[m])
+				continue;
+			int numParameters = fitters[m].getNumParameters();
+			int degreesOfFreedom = observed.size() - numParameters - 1; //k - p - 1
+			double pValue = degreesOfFreedom < 1 ? Double.NaN 
+					: ChiSquaredDistribution.pValue(chiSq[m], degreesOfFreedom);
+			fits[m] = new ModelFit(fitters[m].getName(), fitters[m].describe(), numParameters,
+					logLikelihood[m], chiSq[m], degreesOfFreedom, pValue);
+		}
+		return new ModelComparison(id, fits);
+	}
+
+	/** Finds a root of f in [low, high] by the Illinois variant of regula falsi
+	 * @return the root, or NaN if f does not change sign over [low, high]
+	 */
+	static double findRoot(DoubleUnaryOperator f, double low, double high)
+	{
+		double fLow = f.applyAsDouble(low);
+		double fHigh = f.applyAsDouble(high);
+		if (fLow == 0)
+			return low;
+		if (fHigh == 0)
+			return high;
+		if ((fLow > 0) == (fHigh > 0))
+			return Double.NaN;
+
+		int side = 0; //which end moved last: -1 for low, 1 for high
+		for (int i = 0; i < MAX_ROOT_ITERATIONS; i++)
+		{
+			double mid = (low * fHigh - high * fLow) / (fHigh - fLow);
+			if (Math.abs(high - low) <= ROOT_TOLERANCE * Math.max(1, Math.abs(mid)))
+				return mid;
+			double fMid = f.applyAsDouble(mid);
+			if (fMid == 0)
+				return mid;
+			if ((fMid > 0) == (fLow > 0))
+			{
+				low = mid;
+				fLow = fMid;
+				if (side == -1) //halve the weight of the end that hasn't moved, so it does
+					fHigh /= 2;
+				side = -1;
+			}
+			else
+			{
+				high = mid;
+				fHigh = fMid;
+				if (side == 1)
+					fLow /= 2;
+				side = 1;
+			}
+		}
+		return (low * fHigh - high * fLow) / (fHigh - fLow);
+	}
+
+	private static String[] names(DistributionFitter[] fitters)
+	{
+		String[] names = new String[fitters.length];
+		for (int m = 0; m < fitters.length; m++)
+			names[m] = fitters[m].getName();
+		return names;
+	}
+
+	private static LongAdder[] newAdders(int n)
+	{
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	private static long[] sums(LongAdder[] adders)
+	{
+		long[] sums = new long[adders.length];
+		for (int i = 0; i < adders.length; i++)
+			sums[i] = adders[i].sum();
+		return sums;
+	}
+}
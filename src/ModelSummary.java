@@ -0,0 +1,79 @@
+/**Totals of a ModelSelector run: for each candidate distribution, how many
+ * individuals it fit best by AIC and how many did not reject it by chi squared
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+
+public class ModelSummary
+{
+	private final long numberCompared; //number of individuals with enough CPIs to be compared
+	private final String[] names; //names[m] = the name of candidate m
+	private final long[] best; //best[m] = number of individuals candidate m had the lowest AIC for
+	private final double alpha; //the significance level notRejected was counted at
+	private final long[] notRejected; //notRejected[m] = number of individuals who did not reject candidate m
+
+	public ModelSummary(long numberCompared, String[] names, long[] best, double alpha, long[] notRejected)
+	{
+		this.numberCompared = numberCompared;
+		this.names = names.clone();
+		this.best = best.clone();
+		this.alpha = alpha;
+		this.notRejected = notRejected.clone();
+	}
+
+	public long getNumberCompared()
+	{
+		return numberCompared;
+	}
+
+	public int getNumCandidates()
+	{
+		return names.length;
+	}
+
+	public String getName(int m)
+	{
+		return names[m];
+	}
+
+	/** Returns the number of individuals candidate m had the lowest AIC for **/
+	public long getBest(int m)
+	{
+		return best[m];
+	}
+
+	public double getAlpha()
+	{
+		return alpha;
+	}
+
+	/** Returns the number of individuals who did not reject candidate m at getAlpha() **/
+	public long getNotRejected(int m)
+	{
+		return notRejected[m];
+	}
+
+	public void print(PrintStream out)
+	{
+		out.println("Number of individuals compared: " + numberCompared);
+		out.println("Best fit by AIC:");
+		for (int m = 0; m < names.length; m++)
+			out.println(names[m] + ": " + best[m]);
+		out.println("Didn't reject H0 at P = " + alpha + ":");
+		for (int m = 0; m < names.length; m++)
+			out.println(names[m] + ": " + notRejected[m]);
+	}
+}
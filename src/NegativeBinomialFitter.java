@@ -0,0 +1,124 @@
+/**Fits the negative binomial to the number of failures before the first success,
+ * x = k - 1: P(x) = Gamma(x + r) / (Gamma(r) x!) * q^r * (1-q)^x. The MLE of q is
+ * r / (r + mean(x)); r is found by solving the score equation over the bins. Geometric(p)
+ * is the case r = 1, so this fits at least as well as the geometric, at the cost of a
+ * second parameter. When the bins are no more spread out than a poisson, r has no finite
+ * MLE and is capped at MAX_R
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class NegativeBinomialFitter implements DistributionFitter
+{
+	private static final double MIN_R = 1e-6;
+	private static final double MAX_R = 1e6; //large enough that the fit is practically a poisson
+	private static final double BRACKET_WIDTH = 0.5; //initial half width of the bracket around ln(r)
+
+	private double r;
+	private double q;
+	private double logNormalizer; //r * ln(q) - ln(Gamma(r))
+	private double logOneMinusQ;
+
+	@Override
+	public String getName()
+	{
+		return "negative binomial";
+	}
+
+	@Override
+	public int getNumParameters()
+	{
+		return 2;
+	}
+
+	@Override
+	public boolean fit(ObservedBins observed)
+	{
+		double n = observed.getSampleSize();
+		double meanTrials = observed.getNumTrials() / n;
+		double mean = meanTrials - 1; //mean of x
+		if (mean <= 0) //every interaction has k = 1
+			return false;
+		double variance = observed.getSumSquaredTrials() / n - meanTrials * meanTrials;
+
+		if (variance <= mean)
+			r = MAX_R;
+		else
+		{
+			//solve the score equation for ln(r), since r may be anywhere from tiny to huge.
+			//the method of moments estimate is close to the root, so bracket around it
+			//and widen until the score changes sign
+			double guess = Math.log(Math.min(MAX_R, Math.max(MIN_R, mean * mean / (variance - mean))));
+			double logR = Double.NaN;
+			for (double width = BRACKET_WIDTH; Double.isNaN(logR); width *= 4)
+			{
+				double low = Math.max(Math.log(MIN_R), guess - width);
+				double high = Math.min(Math.log(MAX_R), guess + width);
+				logR = ModelSelector.findRoot(t -> score(observed, Math.exp(t), mean), low, high);
+				if (low == Math.log(MIN_R) && high == Math.log(MAX_R))
+					break;
+			}
+			r = Double.isNaN(logR) ? MAX_R : Math.exp(logR);
+		}
+
+		q = r / (r + mean);
+		logNormalizer = r * Math.log(q) - ChiSquaredDistribution.logGamma(r);
+		logOneMinusQ = Math.log(mean / (r + mean));
+		return true;
+	}
+
+	@Override
+	public double logProbability(ObservedBins observed, int i)
+	{
+		int x = observed.getTrials(i) - 1;
+		if (x == 0)
+			return r * Math.log(q);
+		return ChiSquaredDistribution.logGamma(x + r) - ChiSquaredDistribution.logGamma(x + 1)
+				+ logNormalizer + x * logOneMinusQ;
+	}
+
+	@Override
+	public String describe()
+	{
+		return "r=" + r + " q=" + q;
+	}
+
+	/** Returns the derivative of the log likelihood in r, with q at its MLE for this r **/
+	private static double score(ObservedBins observed, double r, double mean)
+	{
+		double digammaR = digamma(r);
+		double sum = 0;
+		for (int i = 0; i < observed.size(); i++)
+		{
+			int x = observed.getTrials(i) - 1;
+			if (x > 0)
+				sum += observed.getCount(i) * (digamma(x + r) - digammaR);
+		}
+		return sum + observed.getSampleSize() * Math.log(r / (r + mean));
+	}
+
+	/** Returns the digamma function, d/dx ln(Gamma(x)), for x > 0 **/
+	static double digamma(double x)
+	{
+		double result = 0;
+		while (x < 6) //shift up until the asymptotic series is accurate
+		{
+			result -= 1 / x;
+			x++;
+		}
+		double f = 1 / (x * x);
+		return result + Math.log(x) - 0.5 / x
+				- f * (1.0 / 12 - f * (1.0 / 120 - f * (1.0 / 252 - f * (1.0 / 240 - f / 132))));
+	}
+}
@@ -0,0 +1,169 @@
+/**The bins of an individual's histogram that go into a goodness of fit test,
+ * held in flat primitive arrays. Filled in a single pass over the histogram, which
+ * also totals the sample size and the number of bernoulli trials, so later steps
+ * need not walk the bins again. Meant to be reused from one individual to the
+ * next; nothing is allocated unless an individual has more bins than any before
+ * NOTE: we say that for an interaction of duration x, the x + 1th trial was
+ *  successful. Thus each duration is shifted up by 1, since it is analogous to the
+ *  number of bernoulli experiments performed
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+public class ObservedBins implements DurationHistogram.BinVisitor
+{
+	private static final int INITIAL_SIZE = 64;
+
+	private int[] trials; //trials[i] = the shifted duration of bin i; increasing
+	private int[] counts; //counts[i] = the number of interactions in bin i
+	private double[] ideal; //ideal[i] = the ideal frequency of bin i under the fitted distribution
+	private int size; //the number of bins in use
+	private long sampleSize; //the sum of counts
+	private long numTrials; //the sum of counts[i] * trials[i]
+	private int threshold; //bins must have more than this many interactions to be kept
+	//filled in by summarize(), for fitting distributions other than the geometric
+	private double[] logTrials; //logTrials[i] = ln(trials[i])
+	private double sumLogTrials; //the sum of counts[i] * ln(trials[i])
+	private double sumSquaredLogTrials; //the sum of counts[i] * ln(trials[i])^2
+	private double sumSquaredTrials; //the sum of counts[i] * trials[i]^2
+
+	public ObservedBins()
+	{
+		trials = new int[INITIAL_SIZE];
+		counts = new int[INITIAL_SIZE];
+		ideal = new double[INITIAL_SIZE];
+		logTrials = new double[INITIAL_SIZE];
+	}
+
+	/** Replaces the contents with every bin of histogram that has more than
+	 * threshold interactions
+	 */
+	public void fill(DurationHistogram histogram, int threshold)
+	{
+		clear(threshold);
+		histogram.forEach(this);
+	}
+
+	/** Empties the bins, ready to be refilled one bin at a time through bin() **/
+	public void clear(int threshold)
+	{
+		this.threshold = threshold;
+		size = 0;
+		sampleSize = 0;
+		numTrials = 0;
+	}
+
+	/** Offers one bin of a histogram. Bins must be offered in order of increasing duration **/
+	@Override
+	public void bin(int duration, int count)
+	{
+		if (count <= threshold)
+			return;
+		if (size == trials.length)
+		{
+			trials = Arrays.copyOf(trials, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+			ideal = Arrays.copyOf(ideal, size * 2);
+		}
+		int k = duration + 1;
+		trials[size] = k;
+		counts[size] = count;
+		size++;
+		sampleSize += count;
+		numTrials += (long) count * k;
+	}
+
+	/** Computes the log and squared sums of the bins in one pass over them.
+	 * Only needed by fits other than the geometric, so fill() leaves it to the caller
+	 */
+	public void summarize()
+	{
+		if (logTrials.length < size)
+			logTrials = new double[trials.length];
+		sumLogTrials = 0;
+		sumSquaredLogTrials = 0;
+		sumSquaredTrials = 0;
+		for (int i = 0; i < size; i++)
+		{
+			double logK = Math.log(trials[i]);
+			logTrials[i] = logK;
+			sumLogTrials += counts[i] * logK;
+			sumSquaredLogTrials += counts[i] * logK * logK;
+			sumSquaredTrials += counts[i] * (double) trials[i] * trials[i];
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/** Returns the number of bernoulli trials (shifted duration) of bin i **/
+	public int getTrials(int i)
+	{
+		return trials[i];
+	}
+
+	public int getCount(int i)
+	{
+		return counts[i];
+	}
+
+	public long getSampleSize()
+	{
+		return sampleSize;
+	}
+
+	/** Returns the number of bernoulli trials over every observation **/
+	public long getNumTrials()
+	{
+		return numTrials;
+	}
+
+	/** Returns ln(getTrials(i)). Only valid after summarize() **/
+	public double getLogTrials(int i)
+	{
+		return logTrials[i];
+	}
+
+	/** Returns the sum of ln(trials) over every observation. Only valid after summarize() **/
+	public double getSumLogTrials()
+	{
+		return sumLogTrials;
+	}
+
+	/** Returns the sum of ln(trials)^2 over every observation. Only valid after summarize() **/
+	public double getSumSquaredLogTrials()
+	{
+		return sumSquaredLogTrials;
+	}
+
+	/** Returns the sum of trials^2 over every observation. Only valid after summarize() **/
+	public double getSumSquaredTrials()
+	{
+		return sumSquaredTrials;
+	}
+
+	public double getIdeal(int i)
+	{
+		return ideal[i];
+	}
+
+	public void setIdeal(int i, double frequency)
+	{
+		ideal[i] = frequency;
+	}
+}
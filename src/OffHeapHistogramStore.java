@@ -0,0 +1,454 @@
+/**Holds every individual's duration histogram off the heap, in direct ByteBuffers,
+ * so that the garbage collector never has to trace or copy them however large the cohort
+ * grows. Each individual is one block in an arena of large direct chunks: a header with
+ * the same running totals InteractionPair keeps, followed by an open addressing table of
+ * (duration, count) slots. A block that fills is moved to one twice the size, and the old
+ * one goes on a free list for its size. The only heap used is a primitive index from id
+ * to block address and some per-thread scratch.
+ * Adding is not thread safe, but once every contact is added, any number of threads may
+ * read and test individuals at once. The direct memory is released when the store is
+ * garbage collected, and counts against -XX:MaxDirectMemorySize
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class OffHeapHistogramStore
+{
+	private static final int CHUNK_SIZE = 1 << 26; //bytes of direct memory allocated at a time
+	private static final int DEFAULT_CAPACITY = 1024; //initial index capacity; must be a power of two
+	private static final int INITIAL_SLOTS = 8; //slots in a new block; must be a power of two
+	private static final long NO_BLOCK = -1;
+	private static final int EMPTY = -1; //the duration of an empty slot
+
+	//the layout of a block's header, as byte offsets from the start of the block
+	private static final int ID = 0;
+	private static final int SLOTS = 4; //the number of slots in the block
+	private static final int BINS = 8; //the number of slots in use
+	private static final int OBSERVED_BINS = 12; //running totals, as in InteractionPair
+	private static final int TOTAL = 16;
+	private static final int OBSERVED_SAMPLE_SIZE = 24;
+	private static final int OBSERVED_TRIALS = 32;
+	private static final int HEADER_SIZE = 40;
+	private static final int SLOT_SIZE = 8; //an int duration and then an int count
+
+	//scratch space, one per thread so that individuals can be read concurrently
+	private static final ThreadLocal<ObservedBins> observedScratch = ThreadLocal.withInitial(ObservedBins::new);
+	private static final ThreadLocal<long[]> sortScratch = ThreadLocal.withInitial(() -> new long[64]);
+
+	private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+	private int top; //the next free byte of the last chunk
+	private final long[] freeBlocks = new long[Integer.SIZE]; //freeBlocks[i] = a free block of 2^i slots, or NO_BLOCK
+	private long offHeapBytes; //direct memory allocated
+
+	//the index from id to block address; the address is (chunk << 32 | offset)
+	private int[] ids;
+	private long[] addresses; //NO_BLOCK for an empty index slot
+	private int size;
+	private int mask;
+
+	public OffHeapHistogramStore()
+	{
+		ids = new int[DEFAULT_CAPACITY];
+		addresses = new long[DEFAULT_CAPACITY];
+		Arrays.fill(addresses, NO_BLOCK);
+		Arrays.fill(freeBlocks, NO_BLOCK);
+		mask = DEFAULT_CAPACITY - 1;
+	}
+
+	/** Parses the input file into a new store
+	 * @throws IOException in case the input file does not exist, cannot be read, or is malformed
+	 */
+	public static OffHeapHistogramStore read(File inputFile) throws IOException
+	{
+		long start = PipelineMetrics.start();
+		OffHeapHistogramStore store = new OffHeapHistogramStore();
+		//we dont care about who they had the interaction with, so the parser's partner id is thrown away
+		ContactParser.parse(inputFile, (id, partner, duration) -> store.add(id, duration, 1));
+		PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, start);
+		return store;
+	}
+
+	/** Returns the number of individuals stored **/
+	public int size()
+	{
+		return size;
+	}
+
+	/** Returns the bytes of direct memory allocated **/
+	public long getOffHeapBytes()
+	{
+		return offHeapBytes;
+	}
+
+	/** Returns the id of every individual stored, sorted **/
+	public int[] getSortedIDs()
+	{
+		int[] sorted = new int[size];
+		int i = 0;
+		for (int slot = 0; slot < addresses.length; slot++)
+		{
+			if (addresses[slot] != NO_BLOCK)
+				sorted[i++] = ids[slot];
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/** Records count interactions of this duration for individual id
+	 * @throws IllegalArgumentException if duration is negative
+	 */
+	public void add(int id, int duration, int count)
+	{
+		if (duration < 0)
+			throw new IllegalArgumentException("Negative interaction duration: " + duration);
+		if (count == 0)
+			return;
+		int indexSlot = indexSlotFor(id);
+		long block = addresses[indexSlot];
+		ByteBuffer buffer = chunk(block);
+		int base = offset(block);
+		int at = findSlot(buffer, base, duration);
+		if (buffer.getInt(at) == EMPTY)
+		{
+			int bins = buffer.getInt(base + BINS);
+			if ((bins + 1) * 2 > buffer.getInt(base + SLOTS)) //keep the load factor at or under 0.5
+			{
+				block = grow(block);
+				addresses[indexSlot] = block;
+				buffer = chunk(block);
+				base = offset(block);
+				at = findSlot(buffer, base, duration);
+			}
+			buffer.putInt(at, duration);
+			buffer.putInt(at + 4, 0);
+			buffer.putInt(base + BINS, bins + 1);
+		}
+
+		int before = buffer.getInt(at + 4);
+		int after = before + count;
+		buffer.putInt(at + 4, after);
+		buffer.putLong(base + TOTAL, buffer.getLong(base + TOTAL) + count);
+
+		//keep the running totals, exactly as InteractionPair.addInteractions() does
+		int added = InteractionPair.newlyObserved(before, after);
+		if (added == 0)
+			return;
+		if (before <= InteractionPair.OBSERVATION_THRESHOLD)
+			buffer.putInt(base + OBSERVED_BINS, buffer.getInt(base + OBSERVED_BINS) + 1);
+		buffer.putLong(base + OBSERVED_SAMPLE_SIZE, buffer.getLong(base + OBSERVED_SAMPLE_SIZE) + added);
+		buffer.putLong(base + OBSERVED_TRIALS, buffer.getLong(base + OBSERVED_TRIALS) + added * (duration + 1L));
+	}
+
+	/** Returns the number of interactions recorded for individual id **/
+	public long getTotal(int id)
+	{
+		long block = find(id);
+		return block == NO_BLOCK ? 0 : chunk(block).getLong(offset(block) + TOTAL);
+	}
+
+	/** Returns the number of distinct durations recorded for individual id **/
+	public int getBinCount(int id)
+	{
+		long block = find(id);
+		return block == NO_BLOCK ? 0 : chunk(block).getInt(offset(block) + BINS);
+	}
+
+	/** Returns the number of interactions of this duration for individual id **/
+	public int getCount(int id, int duration)
+	{
+		long block = find(id);
+		if (block == NO_BLOCK || duration < 0)
+			return 0;
+		ByteBuffer buffer = chunk(block);
+		int at = findSlot(buffer, offset(block), duration);
+		return buffer.getInt(at) == EMPTY ? 0 : buffer.getInt(at + 4);
+	}
+
+	/** Returns the probability of individual id having an interaction of this duration.
+	 * Probability = <#interactions of this length> / <number of total interactions>
+	 */
+	public double getProbability(int id, int duration)
+	{
+		long total = getTotal(id);
+		if (total == 0)
+			return 0;
+		return (double) getCount(id, duration) / total;
+	}
+
+	/** Visits every non-empty bin of individual id in order of increasing duration **/
+	public void forEach(int id, DurationHistogram.BinVisitor visitor)
+	{
+		long block = find(id);
+		if (block == NO_BLOCK)
+			return;
+		ByteBuffer buffer = chunk(block);
+		int base = offset(block);
+		int slots = buffer.getInt(base + SLOTS);
+		int bins = buffer.getInt(base + BINS);
+
+		//slots are in hash order, so pack each as (duration << 32 | count) and sort
+		long[] packed = sortScratch.get();
+		if (packed.length < bins)
+		{
+			packed = new long[Math.max(bins, packed.length * 2)];
+			sortScratch.set(packed);
+		}
+		int n = 0;
+		for (int i = 0; i < slots; i++)
+		{
+			int at = base + HEADER_SIZE + i * SLOT_SIZE;
+			int duration = buffer.getInt(at);
+			if (duration != EMPTY)
+				packed[n++] = ((long) duration << 32) | buffer.getInt(at + 4);
+		}
+		Arrays.sort(packed, 0, n);
+		for (int i = 0; i < n; i++)
+			visitor.bin((int) (packed[i] >>> 32), (int) packed[i]);
+	}
+
+	/** Performs Pearson's Chi Squared test for goodness of fit on individual id,
+	 * exactly as InteractionPair.runChiSquaredTest() does
+	 * @return the result of the test, or null if there were too few CPIs or bins to run it
+	 */
+	public ChiSquaredResult runChiSquaredTest(int id)
+	{
+		long block = find(id);
+		if (block == NO_BLOCK)
+			return null;
+		ByteBuffer buffer = chunk(block);
+		int base = offset(block);
+		if (buffer.getLong(base + OBSERVED_SAMPLE_SIZE) < InteractionPair.MIN_SAMPLE_SIZE
+				|| buffer.getInt(base + OBSERVED_BINS) < InteractionPair.MIN_BINS)
+		{
+			PipelineMetrics.countIndividual(false);
+			return null;
+		}
+
+		long start = PipelineMetrics.start();
+		ObservedBins observed = observedScratch.get();
+		observed.clear(InteractionPair.OBSERVATION_THRESHOLD);
+		forEach(id, observed);
+		PipelineMetrics.stop(PipelineMetrics.Stage.GATHER, start);
+		return InteractionPair.runChiSquaredTest(id, observed);
+	}
+
+	/** Runs the test for every individual stored
+	 * @param parallel true to run the tests concurrently on every core
+	 * @param levels the significance levels to count individuals at
+	 * @param out where to print each individual's result, in order of id, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 */
+	public ChiSquaredSummary runChiSquaredTests(boolean parallel, double[] levels, PrintStream out)
+	{
+		int[] sorted = getSortedIDs();
+		ChiSquaredResult[] results = new ChiSquaredResult[sorted.length];
+		ChiSquaredTally tally = new ChiSquaredTally(levels);
+		IntStream indexes = IntStream.range(0, sorted.length);
+		if (parallel)
+			indexes = indexes.parallel();
+		indexes.forEach(i -> {
+			results[i] = runChiSquaredTest(sorted[i]);
+			if (results[i] != null)
+				tally.record(results[i]);
+		});
+
+		for (int i = 0; out != null && i < results.length; i++)
+		{
+			if (results[i] != null)
+				out.println(results[i].toString());
+		}
+		return tally.summarize();
+	}
+
+	/** Returns the address of individual id's block, or NO_BLOCK if there isn't one **/
+	private long find(int id)
+	{
+		int slot = hash(id) & mask;
+		while (addresses[slot] != NO_BLOCK)
+		{
+			if (ids[slot] == id)
+				return addresses[slot];
+			slot = (slot + 1) & mask;
+		}
+		return NO_BLOCK;
+	}
+
+	/** Returns the index slot of individual id, making an empty block for it if it
+	 * has not been seen before
+	 */
+	private int indexSlotFor(int id)
+	{
+		int slot = hash(id) & mask;
+		while (addresses[slot] != NO_BLOCK)
+		{
+			if (ids[slot] == id)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+
+		if ((size + 1) * 2 > addresses.length) //keep the load factor at or under 0.5
+		{
+			growIndex();
+			slot = hash(id) & mask;
+			while (addresses[slot] != NO_BLOCK)
+				slot = (slot + 1) & mask;
+		}
+		long block = allocate(INITIAL_SLOTS);
+		ByteBuffer buffer = chunk(block);
+		int base = offset(block);
+		buffer.putInt(base + ID, id);
+		buffer.putInt(base + BINS, 0);
+		buffer.putInt(base + OBSERVED_BINS, 0);
+		buffer.putLong(base + TOTAL, 0);
+		buffer.putLong(base + OBSERVED_SAMPLE_SIZE, 0);
+		buffer.putLong(base + OBSERVED_TRIALS, 0);
+		ids[slot] = id;
+		addresses[slot] = block;
+		size++;
+		return slot;
+	}
+
+	/** Returns the byte offset of the slot holding duration in the block at base, or
+	 * of the empty slot it would go in
+	 */
+	private static int findSlot(ByteBuffer buffer, int base, int duration)
+	{
+		int slotMask = buffer.getInt(base + SLOTS) - 1;
+		int slot = hash(duration) & slotMask;
+		while (true)
+		{
+			int at = base + HEADER_SIZE + slot * SLOT_SIZE;
+			int stored = buffer.getInt(at);
+			if (stored == duration || stored == EMPTY)
+				return at;
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	/** Moves the block to a new block with twice the slots, freeing the old one
+	 * @return the address of the new block
+	 */
+	private long grow(long block)
+	{
+		ByteBuffer oldBuffer = chunk(block);
+		int oldBase = offset(block);
+		int oldSlots = oldBuffer.getInt(oldBase + SLOTS);
+		long newBlock = allocate(oldSlots * 2);
+		ByteBuffer buffer = chunk(newBlock);
+		int base = offset(newBlock);
+		//copy the header, all but the slot count allocate() already wrote
+		buffer.putInt(base + ID, oldBuffer.getInt(oldBase + ID));
+		buffer.putInt(base + BINS, oldBuffer.getInt(oldBase + BINS));
+		buffer.putInt(base + OBSERVED_BINS, oldBuffer.getInt(oldBase + OBSERVED_BINS));
+		buffer.putLong(base + TOTAL, oldBuffer.getLong(oldBase + TOTAL));
+		buffer.putLong(base + OBSERVED_SAMPLE_SIZE, oldBuffer.getLong(oldBase + OBSERVED_SAMPLE_SIZE));
+		buffer.putLong(base + OBSERVED_TRIALS, oldBuffer.getLong(oldBase + OBSERVED_TRIALS));
+
+		for (int i = 0; i < oldSlots; i++)
+		{
+			int oldAt = oldBase + HEADER_SIZE + i * SLOT_SIZE;
+			int duration = oldBuffer.getInt(oldAt);
+			if (duration == EMPTY)
+				continue;
+			int at = findSlot(buffer, base, duration);
+			buffer.putInt(at, duration);
+			buffer.putInt(at + 4, oldBuffer.getInt(oldAt + 4));
+		}
+
+		//the first 8 bytes of a free block link to the next free block of its size
+		int sizeClass = Integer.numberOfTrailingZeros(oldSlots);
+		oldBuffer.putLong(oldBase, freeBlocks[sizeClass]);
+		freeBlocks[sizeClass] = block;
+		return newBlock;
+	}
+
+	/** Returns the address of a block of this many slots, all empty, with SLOTS set.
+	 * Reuses a freed block of the same size if there is one
+	 */
+	private long allocate(int slots)
+	{
+		int sizeClass = Integer.numberOfTrailingZeros(slots);
+		long block = freeBlocks[sizeClass];
+		if (block != NO_BLOCK)
+			freeBlocks[sizeClass] = chunk(block).getLong(offset(block));
+		else
+		{
+			int blockSize = HEADER_SIZE + slots * SLOT_SIZE;
+			ByteBuffer last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (last == null || last.capacity() - top < blockSize)
+			{
+				last = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, blockSize)).order(ByteOrder.nativeOrder());
+				chunks.add(last);
+				offHeapBytes += last.capacity();
+				top = 0;
+			}
+			block = ((long) (chunks.size() - 1) << 32) | top;
+			top += blockSize;
+		}
+
+		ByteBuffer buffer = chunk(block);
+		int base = offset(block);
+		buffer.putInt(base + SLOTS, slots);
+		for (int i = 0; i < slots; i++)
+			buffer.putLong(base + HEADER_SIZE + i * SLOT_SIZE, -1L); //EMPTY duration, and a count never read
+		return block;
+	}
+
+	private void growIndex()
+	{
+		int[] oldIds = ids;
+		long[] oldAddresses = addresses;
+		ids = new int[oldIds.length * 2];
+		addresses = new long[oldAddresses.length * 2];
+		Arrays.fill(addresses, NO_BLOCK);
+		mask = addresses.length - 1;
+
+		for (int i = 0; i < oldAddresses.length; i++)
+		{
+			if (oldAddresses[i] == NO_BLOCK)
+				continue;
+			int slot = hash(oldIds[i]) & mask;
+			while (addresses[slot] != NO_BLOCK)
+				slot = (slot + 1) & mask;
+			ids[slot] = oldIds[i];
+			addresses[slot] = oldAddresses[i];
+		}
+	}
+
+	private ByteBuffer chunk(long block)
+	{
+		return chunks.get((int) (block >>> 32));
+	}
+
+	private static int offset(long block)
+	{
+		return (int) block;
+	}
+
+	/** Spreads the bits of a key so that sequential keys don't cluster **/
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,188 @@
+/**Runs the chi squared test of every individual over a grid of observation thresholds
+ * (InteractionPair.OBSERVATION_THRESHOLD; bins must have more than this many interactions)
+ * and sample size cutoffs (InteractionPair.MIN_SAMPLE_SIZE in runChiSquaredTest), in one
+ * pass over each histogram.
+ * The bins are gathered once, at the lowest threshold. One pass over them counts the
+ * bins and interactions kept at every threshold, by bucketing each bin under the highest
+ * threshold it clears and summing back down; thresholds that keep too few bins or too few
+ * interactions for even the smallest cutoff are skipped without a fit, and a threshold
+ * that keeps the same bins as the one below it reuses its fit. Every cutoff then reuses
+ * its threshold's fit, since the cutoff only decides who is tested
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+public class ParameterSweep
+{
+	public static final int[] DEFAULT_THRESHOLDS = {0, 1, 2, 3, 5, 10};
+	public static final long[] DEFAULT_CUTOFFS = {50, 100, 250, 500, 1000};
+
+	private final int[] thresholds; //sorted
+	private final long[] cutoffs;
+	private final long minCutoff;
+	private final double[] levels;
+	private final LongAdder[] tested; //laid out as in SweepResult
+	private final LongAdder[] rejected;
+	private final ThreadLocal<Scratch> scratch;
+
+	private ParameterSweep(int[] thresholds, long[] cutoffs, double[] levels)
+	{
+		this.thresholds = thresholds.clone();
+		Arrays.sort(this.thresholds);
+		this.cutoffs = cutoffs.clone();
+		this.levels = levels.clone();
+		long min = Long.MAX_VALUE;
+		for (int c = 0; c < cutoffs.length; c++)
+			min = Math.min(min, cutoffs[c]);
+		minCutoff = min;
+		tested = newAdders(thresholds.length * cutoffs.length);
+		rejected = newAdders(thresholds.length * cutoffs.length * levels.length);
+		scratch = ThreadLocal.withInitial(() -> new Scratch(this.thresholds.length));
+	}
+
+	/** Sweeps the default grid at the default significance levels **/
+	public static SweepResult run(IndividualIndex input, boolean parallel)
+	{
+		return run(input, parallel, DEFAULT_THRESHOLDS, DEFAULT_CUTOFFS, ChiSquaredTally.DEFAULT_LEVELS);
+	}
+
+	/** Runs the test for every individual in input at every cell of the grid
+	 * @param input the individuals to test
+	 * @param parallel true to test individuals concurrently on every core
+	 * @param thresholds the observation thresholds to try, each >= 0
+	 * @param cutoffs the sample size cutoffs to try
+	 * @param levels the significance levels to count rejections at
+	 * @return the matrix of tested and rejected counts
+	 */
+	public static SweepResult run(IndividualIndex input, boolean parallel, int[] thresholds, long[] cutoffs,
+			double[] levels)
+	{
+		if (thresholds.length == 0 || cutoffs.length == 0)
+			throw new IllegalArgumentException("A sweep needs at least one threshold and one cutoff");
+		ParameterSweep sweep = new ParameterSweep(thresholds, cutoffs, levels);
+		InteractionPair[] pairs = input.toArray();
+		IntStream indexes = IntStream.range(0, pairs.length);
+		if (parallel)
+			indexes = indexes.parallel();
+		indexes.forEach(i -> sweep.sweep(pairs[i]));
+
+		long[] testedCounts = new long[sweep.tested.length];
+		for (int i = 0; i < testedCounts.length; i++)
+			testedCounts[i] = sweep.tested[i].sum();
+		long[] rejectedCounts = new long[sweep.rejected.length];
+		for (int i = 0; i < rejectedCounts.length; i++)
+			rejectedCounts[i] = sweep.rejected[i].sum();
+		return new SweepResult(sweep.thresholds, cutoffs, levels, testedCounts, rejectedCounts);
+	}
+
+	/** Tests pair at every cell of the grid **/
+	private void sweep(InteractionPair pair)
+	{
+		Scratch s = scratch.get();
+		ObservedBins all = s.all;
+		all.fill(pair.getHistogram(), thresholds[0]);
+		//the lowest threshold keeps the most; if that isn't enough, nothing is
+		if (all.getSampleSize() < minCutoff || all.size() < InteractionPair.MIN_BINS)
+			return;
+
+		//bucket each bin under the highest threshold it clears, then sum down so that
+		//binsKept[t] and sampleKept[t] count every bin with more than thresholds[t]
+		int numThresholds = thresholds.length;
+		Arrays.fill(s.binsKept, 0);
+		Arrays.fill(s.sampleKept, 0);
+		for (int i = 0; i < all.size(); i++)
+		{
+			int highest = highestCleared(all.getCount(i));
+			s.binsKept[highest]++;
+			s.sampleKept[highest] += all.getCount(i);
+		}
+		for (int t = numThresholds - 2; t >= 0; t--)
+		{
+			s.binsKept[t] += s.binsKept[t + 1];
+			s.sampleKept[t] += s.sampleKept[t + 1];
+		}
+
+		double chiSq = 0;
+		int fittedBins = -1; //the number of bins chiSq was fit to
+		for (int t = 0; t < numThresholds; t++)
+		{
+			int bins = s.binsKept[t];
+			long sampleSize = s.sampleKept[t];
+			if (sampleSize < minCutoff || bins < InteractionPair.MIN_BINS)
+				break; //higher thresholds keep even less
+			if (bins != fittedBins) //otherwise this threshold keeps exactly the bins of the last fit
+			{
+				ObservedBins kept = s.kept;
+				kept.clear(thresholds[t]);
+				for (int i = 0; i < all.size(); i++)
+					kept.bin(all.getTrials(i) - 1, all.getCount(i));
+				double p = InteractionPair.estimateP(kept);
+				chiSq = InteractionPair.calculateChiSq(kept, sampleSize, p);
+				fittedBins = bins;
+			}
+
+			int degreesOfFreedom = bins - 2; //using the formula k - p - 1
+			for (int c = 0; c < cutoffs.length; c++)
+			{
+				if (sampleSize < cutoffs[c])
+					continue;
+				int cell = t * cutoffs.length + c;
+				tested[cell].increment();
+				for (int l = 0; l < levels.length; l++)
+				{
+					if (chiSq >= ChiSquaredDistribution.criticalValue(degreesOfFreedom, levels[l]))
+						rejected[cell * levels.length + l].increment();
+				}
+			}
+		}
+	}
+
+	/** Returns the index of the highest threshold count is more than
+	 * PRECONDITION: count > thresholds[0]
+	 */
+	private int highestCleared(int count)
+	{
+		int t = 0;
+		while (t + 1 < thresholds.length && count > thresholds[t + 1])
+			t++;
+		return t;
+	}
+
+	private static LongAdder[] newAdders(int n)
+	{
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	/** Per thread working space **/
+	private static class Scratch
+	{
+		final ObservedBins all = new ObservedBins(); //bins kept at the lowest threshold
+		final ObservedBins kept = new ObservedBins(); //bins kept at the threshold being fit
+		final int[] binsKept;
+		final long[] sampleKept;
+
+		Scratch(int numThresholds)
+		{
+			binsKept = new int[numThresholds];
+			sampleKept = new long[numThresholds];
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**Counters and timers for each stage of the pipeline. Stages are timed once per
+ * file, shard or individual rather than per record, and every counter is a LongAdder,
+ * so the cost is a few nanoseconds per individual and threads never contend.
+ * Parsing and aggregating are timed together as ingest, since records go straight
+ * from the parser into the histograms; likewise the geometric MLE, the expected
+ * counts and the chi squared sum are timed together as fit, since they are one pass.
+ * Exposed over JMX, and as a JSON report at the end of a run
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class PipelineMetrics implements PipelineMetricsMXBean
+{
+	public static final String OBJECT_NAME = "EnvironmentalSIR:type=PipelineMetrics";
+
+	/** The stages of the pipeline that are timed **/
+	public enum Stage
+	{
+		INGEST, //parsing records into histograms
+		MERGE, //merging the histograms of parallel shards
+		PROBABILITY, //setting probabilities
+		GATHER, //gathering the observed bins for a chi squared test
+		FIT, //estimating p, the expected counts and the chi squared value
+		P_VALUE, //finding the p-value of a chi squared value
+		OUTPUT //writing results
+	}
+
+	private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+	private final LongAdder[] stageNanos;
+	private final LongAdder[] stageCalls;
+	private final LongAdder records = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder binsWritten = new LongAdder();
+	private final LongAdder individualsTested = new LongAdder();
+	private final LongAdder individualsSkipped = new LongAdder(); //too few CPIs or bins to test
+
+	private PipelineMetrics()
+	{
+		Stage[] stages = Stage.values();
+		stageNanos = new LongAdder[stages.length];
+		stageCalls = new LongAdder[stages.length];
+		for (int i = 0; i < stages.length; i++)
+		{
+			stageNanos[i] = new LongAdder();
+			stageCalls[i] = new LongAdder();
+		}
+	}
+
+	public static PipelineMetrics get()
+	{
+		return INSTANCE;
+	}
+
+	/** Registers the metrics with the platform MBean server, if they aren't already **/
+	public static void register()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+				server.registerMBean(INSTANCE, name);
+		}
+		catch (JMException e)
+		{
+			System.out.println("Could not register pipeline metrics: " + e);
+		}
+	}
+
+	/** Returns a start time to later pass to stop() **/
+	public static long start()
+	{
+		return System.nanoTime();
+	}
+
+	/** Counts the time since start towards stage **/
+	public static void stop(Stage stage, long start)
+	{
+		INSTANCE.stageNanos[stage.ordinal()].add(System.nanoTime() - start);
+		INSTANCE.stageCalls[stage.ordinal()].increment();
+	}
+
+	public static void addRecords(long count)
+	{
+		INSTANCE.records.add(count);
+	}
+
+	public static void addBytesRead(long count)
+	{
+		INSTANCE.bytesRead.add(count);
+	}
+
+	public static void addBinsWritten(long count)
+	{
+		INSTANCE.binsWritten.add(count);
+	}
+
+	/** Counts an individual that was, or was not, given a chi squared test **/
+	public static void countIndividual(boolean tested)
+	{
+		if (tested)
+			INSTANCE.individualsTested.increment();
+		else
+			INSTANCE.individualsSkipped.increment();
+	}
+
+	@Override
+	public long getRecords()
+	{
+		return records.sum();
+	}
+
+	@Override
+	public long getBytesRead()
+	{
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getBinsWritten()
+	{
+		return binsWritten.sum();
+	}
+
+	@Override
+	public long getIndividualsTested()
+	{
+		return individualsTested.sum();
+	}
+
+	@Override
+	public long getIndividualsSkipped()
+	{
+		return individualsSkipped.sum();
+	}
+
+	/** Returns the sum of the peak usage of every heap memory pool **/
+	@Override
+	public long getPeakHeapBytes()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	@Override
+	public Map<String, Long> getStageNanos()
+	{
+		return byStage(stageNanos);
+	}
+
+	@Override
+	public Map<String, Long> getStageCalls()
+	{
+		return byStage(stageCalls);
+	}
+
+	@Override
+	public void reset()
+	{
+		for (int i = 0; i < stageNanos.length; i++)
+		{
+			stageNanos[i].reset();
+			stageCalls[i].reset();
+		}
+		records.reset();
+		bytesRead.reset();
+		binsWritten.reset();
+		individualsTested.reset();
+		individualsSkipped.reset();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+	}
+
+	/** Writes every counter as a JSON object to reportFile **/
+	public void writeReport(File reportFile) throws IOException
+	{
+		Writer out = new FileWriter(reportFile);
+		try
+		{
+			out.write("{\n");
+			out.write("  \"records\": " + getRecords() + ",\n");
+			out.write("  \"bytesRead\": " + getBytesRead() + ",\n");
+			out.write("  \"binsWritten\": " + getBinsWritten() + ",\n");
+			out.write("  \"individualsTested\": " + getIndividualsTested() + ",\n");
+			out.write("  \"individualsSkipped\": " + getIndividualsSkipped() + ",\n");
+			out.write("  \"peakHeapBytes\": " + getPeakHeapBytes() + ",\n");
+			out.write("  \"stages\": {\n");
+			Stage[] stages = Stage.values();
+			for (int i = 0; i < stages.length; i++)
+			{
+				out.write("    \"" + stageName(stages[i]) + "\": {\"nanos\": " + stageNanos[i].sum()
+						+ ", \"calls\": " + stageCalls[i].sum() + "}");
+				out.write(i < stages.length - 1 ? ",\n" : "\n");
+			}
+			out.write("  }\n");
+			out.write("}\n");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static Map<String, Long> byStage(LongAdder[] adders)
+	{
+		Map<String, Long> map = new LinkedHashMap<>();
+		Stage[] stages = Stage.values();
+		for (int i = 0; i < stages.length; i++)
+			map.put(stageName(stages[i]), adders[i].sum());
+		return map;
+	}
+
+	/** Returns the stage's name in lower camel case, eg "pValue" **/
+	private static String stageName(Stage stage)
+	{
+		String[] words = stage.name().toLowerCase().split("_");
+		StringBuilder name = new StringBuilder(words[0]);
+		for (int i = 1; i < words.length; i++)
+			name.append(Character.toUpperCase(words[i].charAt(0))).append(words[i].substring(1));
+		return name.toString();
+	}
+}
@@ -0,0 +1,42 @@
+/**Management interface for PipelineMetrics, so a running job can be watched from
+ * jconsole or any other JMX client. Registered as EnvironmentalSIR:type=PipelineMetrics
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Map;
+
+public interface PipelineMetricsMXBean
+{
+	long getRecords();
+
+	long getBytesRead();
+
+	long getBinsWritten();
+
+	long getIndividualsTested();
+
+	long getIndividualsSkipped();
+
+	long getPeakHeapBytes();
+
+	/** Returns the total nanoseconds spent in each stage, keyed by stage name **/
+	Map<String, Long> getStageNanos();
+
+	/** Returns the number of times each stage has run, keyed by stage name **/
+	Map<String, Long> getStageCalls();
+
+	/** Zeroes every counter **/
+	void reset();
+}
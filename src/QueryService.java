@@ -0,0 +1,374 @@
+/**Serves a loaded data set over HTTP on the loopback interface, so simulations and
+ * notebooks can query the same cohort many times without paying for the parse each
+ * time. Everything a request can ask for (each individual's bins, p-hat and chi
+ * squared result, and the cohort totals) is worked out once when the service starts
+ * and kept in an immutable Snapshot, so requests never lock anything. Requests run on
+ * virtual threads when the JVM has them, and on a cached thread pool otherwise.
+ * Every response is JSON:
+ *   GET /individual?id=N            bins as [duration, count, probability], p-hat and the test result
+ *   GET /summary                    the chi squared totals over the whole cohort
+ *   GET /sample?id=N&n=K&seed=S     K durations drawn from individual N; all three optional:
+ *                                   without id they come from the pooled distribution,
+ *                                   n defaults to 1 and seed to a fresh random one
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+public class QueryService
+{
+	public static final int MAX_SAMPLES = 1000000; //the most durations one /sample request may draw
+	private static final int BACKLOG = 128; //connections the socket queues before refusing more
+
+	private final Snapshot snapshot;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/** Binds to port on the loopback interface and builds the snapshot of input;
+	 * call start() to begin answering requests
+	 * @param port the port to listen on, or 0 for any free one
+	 * @param levels the significance levels the summary counts at
+	 * @param parallel true to build the snapshot on every core
+	 */
+	public QueryService(IndividualIndex input, int port, double[] levels, boolean parallel) throws IOException
+	{
+		snapshot = new Snapshot(input, levels, parallel);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+		executor = newExecutor();
+		server.setExecutor(executor);
+		server.createContext("/individual", handler(this::individual));
+		server.createContext("/summary", handler(this::summary));
+		server.createContext("/sample", handler(this::sample));
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	/** Stops answering requests, letting those under way finish for up to a second **/
+	public void stop()
+	{
+		server.stop(1);
+		executor.shutdown();
+		stopped.countDown();
+	}
+
+	/** Blocks until stop() is called **/
+	public void awaitStop() throws InterruptedException
+	{
+		stopped.await();
+	}
+
+	/** Returns the port being listened on, which is only interesting if 0 was asked for **/
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/** Returns the number of individuals in the snapshot **/
+	public int size()
+	{
+		return snapshot.ids.length;
+	}
+
+	/** Returns an executor that runs each request on a new virtual thread, or a cached
+	 * pool of daemon threads on JVMs without them. Looked up by reflection so that
+	 * this still builds and runs on Java 8
+	 */
+	static ExecutorService newExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "query");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/** GET /individual?id=N **/
+	private Response individual(HttpExchange exchange)
+	{
+		String id = parameter(exchange, "id");
+		if (id == null)
+			return Response.error(400, "id is required");
+		int i = snapshot.indexOf(Integer.parseInt(id));
+		if (i < 0)
+			return Response.error(404, "no individual " + id);
+
+		StringBuilder json = new StringBuilder(64 + 48 * (snapshot.starts[i + 1] - snapshot.starts[i]));
+		long total = snapshot.totals[i];
+		json.append("{\"id\": ").append(snapshot.ids[i]);
+		json.append(", \"total\": ").append(total);
+		json.append(", \"pHat\": ");
+		appendNumber(json, snapshot.pHats[i]);
+		ChiSquaredResult result = snapshot.results[i];
+		if (result == null)
+			json.append(", \"test\": null");
+		else
+		{
+			json.append(", \"test\": {\"chiSquared\": ");
+			appendNumber(json, result.getChiSquared());
+			json.append(", \"degreesOfFreedom\": ").append(result.getDegreesOfFreedom());
+			json.append(", \"pValue\": ");
+			appendNumber(json, result.getPValue());
+			json.append('}');
+		}
+		json.append(", \"bins\": [");
+		for (int k = snapshot.starts[i]; k < snapshot.starts[i + 1]; k++)
+		{
+			if (k > snapshot.starts[i])
+				json.append(", ");
+			json.append('[').append(snapshot.durations[k]).append(", ").append(snapshot.counts[k]).append(", ");
+			appendNumber(json, (double) snapshot.counts[k] / total);
+			json.append(']');
+		}
+		json.append("]}");
+		return Response.ok(json);
+	}
+
+	/** GET /summary **/
+	private Response summary(HttpExchange exchange)
+	{
+		ChiSquaredSummary summary = snapshot.summary;
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"individuals\": ").append(snapshot.ids.length);
+		json.append(", \"minSampleSize\": ").append(summary.getMinSampleSize());
+		json.append(", \"tested\": ").append(summary.getNumberOfCPIs());
+		json.append(", \"notRejected\": {");
+		double[] levels = summary.getLevels();
+		for (int l = 0; l < levels.length; l++)
+		{
+			if (l > 0)
+				json.append(", ");
+			json.append('"').append(levels[l]).append("\": ").append(summary.getNotRejected(l));
+		}
+		json.append("}, \"rejected\": ").append(summary.getRejected()).append('}');
+		return Response.ok(json);
+	}
+
+	/** GET /sample?id=N&n=K&seed=S **/
+	private Response sample(HttpExchange exchange)
+	{
+		String id = parameter(exchange, "id");
+		String n = parameter(exchange, "n");
+		String seed = parameter(exchange, "seed");
+		int count = n == null ? 1 : Integer.parseInt(n);
+		if (count < 0 || count > MAX_SAMPLES)
+			return Response.error(400, "n must be between 0 and " + MAX_SAMPLES);
+		DurationSampler sampler = snapshot.sampler;
+		int index = -1;
+		if (id != null)
+		{
+			index = sampler.indexOf(Integer.parseInt(id));
+			if (index < 0)
+				return Response.error(404, "no individual " + id);
+		}
+		else if (sampler.size() == 0)
+			return Response.error(404, "no interactions to sample from");
+		SplittableRandom random = seed == null ? new SplittableRandom() : new SplittableRandom(Long.parseLong(seed));
+
+		StringBuilder json = new StringBuilder(32 + 8 * count);
+		json.append("{\"id\": ");
+		if (index < 0)
+			json.append("null");
+		else
+			json.append(sampler.getID(index)); //not the id as given, which may read "+5" or "007"
+		json.append(", \"durations\": [");
+		for (int k = 0; k < count; k++)
+		{
+			if (k > 0)
+				json.append(", ");
+			json.append(index < 0 ? sampler.samplePooled(random) : sampler.sample(index, random));
+		}
+		json.append("]}");
+		return Response.ok(json);
+	}
+
+	/** Answers a request with whatever responder makes of it. Only GET is allowed, a
+	 * malformed number in the query is a 400, and any other failure, errors included,
+	 * is a 500, rather than a dropped connection
+	 */
+	private static HttpHandler handler(Responder responder)
+	{
+		return exchange -> {
+			Response response;
+			try
+			{
+				if (!exchange.getRequestMethod().equals("GET"))
+					response = Response.error(405, "only GET is supported");
+				else
+					response = responder.respond(exchange);
+			}
+			catch (NumberFormatException e)
+			{
+				response = Response.error(400, "not a number: " + e.getMessage());
+			}
+			catch (Throwable e) //a bug, or out of memory, but the client still gets an answer
+			{
+				response = Response.error(500, "internal error: " + e);
+			}
+			try
+			{
+				byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(response.status, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+			finally
+			{
+				exchange.close();
+			}
+		};
+	}
+
+	/** Returns the value of name in the request's query string, or null if it isn't there **/
+	static String parameter(HttpExchange exchange, String name)
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return null;
+		for (String pair : query.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			if (equals == name.length() && pair.startsWith(name))
+				return pair.substring(equals + 1);
+		}
+		return null;
+	}
+
+	/** Appends value, or null if it is NaN or infinite, which JSON can't represent **/
+	private static void appendNumber(StringBuilder json, double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			json.append("null");
+		else
+			json.append(value);
+	}
+
+	/** Makes the response to one kind of request **/
+	private interface Responder
+	{
+		Response respond(HttpExchange exchange);
+	}
+
+	private static class Response
+	{
+		final int status;
+		final String body;
+
+		Response(int status, String body)
+		{
+			this.status = status;
+			this.body = body;
+		}
+
+		static Response ok(CharSequence json)
+		{
+			return new Response(200, json.toString());
+		}
+
+		static Response error(int status, String message)
+		{
+			return new Response(status, "{\"error\": \"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+		}
+	}
+
+	/** Everything requests can ask for, worked out once from an IndividualIndex and never
+	 * changed after. The bins of every individual are flattened into shared arrays, as in
+	 * DurationSampler, so the snapshot holds no reference to the mutable histograms it came from
+	 */
+	static final class Snapshot
+	{
+		final int[] ids; //the id of each individual, sorted
+		final int[] starts; //individual i's bins are [starts[i], starts[i + 1]) of the arrays below
+		final int[] durations;
+		final int[] counts;
+		final long[] totals; //interactions of each individual
+		final double[] pHats; //the estimate of p from each individual's observed bins, or NaN
+		final ChiSquaredResult[] results; //each individual's test, or null if they had too few CPIs
+		final ChiSquaredSummary summary;
+		final DurationSampler sampler;
+
+		Snapshot(IndividualIndex input, double[] levels, boolean parallel)
+		{
+			InteractionPair[] pairs = input.toSortedArray();
+			ids = new int[pairs.length];
+			starts = new int[pairs.length + 1];
+			totals = new long[pairs.length];
+			pHats = new double[pairs.length];
+			results = new ChiSquaredResult[pairs.length];
+			int bins = 0;
+			for (int i = 0; i < pairs.length; i++)
+			{
+				ids[i] = pairs[i].getID();
+				starts[i] = bins;
+				bins += pairs[i].getHistogram().getBinCount();
+			}
+			starts[pairs.length] = bins;
+			durations = new int[bins];
+			counts = new int[bins];
+
+			ChiSquaredTally tally = new ChiSquaredTally(levels);
+			IntStream indices = IntStream.range(0, pairs.length);
+			(parallel ? indices.parallel() : indices).forEach(i -> {
+				InteractionPair pair = pairs[i];
+				totals[i] = pair.getTotalInteractions();
+				pHats[i] = pair.getEstimatedP();
+				int[] next = {starts[i]};
+				pair.getHistogram().forEach((duration, count) -> {
+					durations[next[0]] = duration;
+					counts[next[0]++] = count;
+				});
+				results[i] = pair.runChiSquaredTest();
+				if (results[i] != null)
+					tally.record(results[i]);
+			});
+			summary = tally.summarize();
+			sampler = DurationSampler.build(input);
+		}
+
+		/** Returns the index of individual id, or -1 if there is no such individual **/
+		int indexOf(int id)
+		{
+			int i = Arrays.binarySearch(ids, id);
+			return i < 0 ? -1 : i;
+		}
+	}
+}
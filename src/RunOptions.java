@@ -0,0 +1,196 @@
+/**The command line options of Runner. Flags start with --; anything else is
+ * taken as an input file, directory or glob to process in batch mode
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RunOptions
+{
+	public static final String USAGE =
+			"Usage: java Runner [options] [inputs...]\n"
+			+ "Inputs are files, directories or globs to process in batch mode; see BatchRunner.\n"
+			+ "With none, asks which file in folder input to process.\n"
+			+ "  --parallel              parse and test on every core\n"
+			+ "  --levels=a,b,...        significance levels to count at (default 0.001,0.01,0.05)\n"
+			+ "  --follow=N              read contacts from standard input, printing fits every N records\n"
+			+ "  --snapshot              load input from its binary snapshot in folder snapshot\n"
+			+ "  --gzip                  gzip the output\n"
+			+ "  --output-shards=N       split each output over N files written concurrently\n"
+			+ "  --threads=N             batch mode worker threads\n"
+			+ "  --metrics               publish stage timings over JMX and write output/metrics.json\n"
+			+ "  --models                also fit zeta, negative binomial and log-normal; see ModelSelector\n"
+			+ "  --bootstrap[=N]         p-values from N parametric bootstrap replicates; see BootstrapTester\n"
+			+ "  --memory-budget=MB      aggregate in about MB of heap, spilling to disk; see ExternalAggregator\n"
+			+ "  --off-heap              hold histograms in direct memory; see OffHeapHistogramStore\n"
+			+ "  --graph                 write each partnership's durations to output/<name>.graph.csv\n"
+			+ "  --sweep                 count rejections over thresholds and cutoffs; see ParameterSweep\n"
+			+ "  --sweep-thresholds=a,b  observation thresholds to sweep\n"
+			+ "  --sweep-cutoffs=a,b     sample size cutoffs to sweep\n"
+			+ "  --serve=PORT            answer queries over HTTP on 127.0.0.1:PORT; see QueryService\n"
+			+ "  --incremental           parse only what was appended since the last run; see IncrementalIngest\n";
+
+	public boolean parallel; //parse input and run the chi squared tests on every core
+	public boolean snapshot; //load input from its binary snapshot, making one if needed
+	public boolean gzip; //gzip the output
+	public boolean metrics; //publish stage timings over JMX and write them to a report
+	public boolean models; //also fit every candidate distribution and report the best by AIC
+	public int bootstrapReplicates; //if > 0, find p-values by parametric bootstrap with this many replicates
+	public long memoryBudget; //if > 0, aggregate each input in this many bytes of heap, spilling to disk
+	public boolean offHeap; //hold histograms in direct memory rather than on the heap
+	public boolean incremental; //parse only what was appended since the last run's checkpoint
+	public boolean graph; //also build the contact graph, keeping partner ids, and write its edges
+	public int[] sweepThresholds; //if not null, also sweep these observation thresholds...
+	public long[] sweepCutoffs; //...against these sample size cutoffs
+	public int servePort = -1; //if >= 0, load one input and answer queries about it on this port
+	public int outputShards = 1; //the number of files to split each output into
+	public double[] levels = ChiSquaredTally.DEFAULT_LEVELS; //significance levels to count at
+	public long followEvery; //if > 0, follow standard input, reporting every this many records
+	public int threads = Runtime.getRuntime().availableProcessors(); //batch mode worker threads
+	public List<String> inputs = new ArrayList<>(); //files, directories or globs to process in batch mode
+
+	/** Parses the command line
+	 * @throws IllegalArgumentException if an option is not recognized or has a bad value
+	 */
+	public static RunOptions parse(String[] args)
+	{
+		RunOptions options = new RunOptions();
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("--parallel"))
+				options.parallel = true;
+			else if (arg.equals("--snapshot"))
+				options.snapshot = true;
+			else if (arg.equals("--gzip"))
+				options.gzip = true;
+			else if (arg.equals("--metrics"))
+				options.metrics = true;
+			else if (arg.equals("--sweep"))
+				options.sweep(ParameterSweep.DEFAULT_THRESHOLDS, ParameterSweep.DEFAULT_CUTOFFS);
+			else if (arg.startsWith("--sweep-thresholds="))
+				options.sweep(parseInts(value(arg)), options.sweepCutoffs);
+			else if (arg.startsWith("--sweep-cutoffs="))
+				options.sweep(options.sweepThresholds, parseLongs(value(arg)));
+			else if (arg.equals("--incremental"))
+				options.incremental = true;
+			else if (arg.equals("--graph"))
+				options.graph = true;
+			else if (arg.equals("--off-heap"))
+				options.offHeap = true;
+			else if (arg.equals("--models"))
+				options.models = true;
+			else if (arg.equals("--bootstrap"))
+				options.bootstrapReplicates = BootstrapTester.DEFAULT_REPLICATES;
+			else if (arg.startsWith("--bootstrap="))
+			{
+				options.bootstrapReplicates = Integer.parseInt(value(arg));
+				if (options.bootstrapReplicates < 1) //0 would quietly mean no bootstrap at all
+					throw new IllegalArgumentException("--bootstrap must be at least 1");
+			}
+			else if (arg.startsWith("--output-shards="))
+				options.outputShards = Integer.parseInt(value(arg));
+			else if (arg.startsWith("--levels="))
+				options.levels = parseLevels(value(arg));
+			else if (arg.startsWith("--follow="))
+				options.followEvery = Long.parseLong(value(arg));
+			else if (arg.startsWith("--memory-budget="))
+				options.memoryBudget = Long.parseLong(value(arg)) << 20;
+			else if (arg.startsWith("--serve="))
+				options.servePort = Integer.parseInt(value(arg));
+			else if (arg.startsWith("--threads="))
+				options.threads = Integer.parseInt(value(arg));
+			else if (arg.startsWith("--"))
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			else
+				options.inputs.add(arg);
+		}
+		if (options.threads < 1)
+			throw new IllegalArgumentException("--threads must be at least 1");
+		//the checkpoint keeps the histograms and standard test results of the whole file
+		if (options.incremental && (options.snapshot || options.bootstrapReplicates > 0 || options.memoryBudget > 0
+				|| options.offHeap || options.servePort >= 0))
+			throw new IllegalArgumentException("--incremental cannot be combined with --snapshot, --bootstrap, "
+					+ "--memory-budget, --off-heap or --serve");
+		if (options.servePort >= 0 && (options.inputs.size() > 1 || options.followEvery > 0 
+				|| options.memoryBudget > 0 || options.offHeap))
+			throw new IllegalArgumentException("--serve takes at most one input, and cannot be combined with "
+					+ "--follow, --memory-budget or --off-heap");
+		//these keep histograms outside IndividualIndex, which the other stages need
+		if (options.memoryBudget > 0 && options.offHeap)
+			throw new IllegalArgumentException("--memory-budget cannot be combined with --off-heap");
+		if ((options.memoryBudget > 0 || options.offHeap) && (options.snapshot || options.models 
+				|| options.bootstrapReplicates > 0 || options.outputShards > 1 || options.sweepThresholds != null))
+			throw new IllegalArgumentException("--memory-budget and --off-heap cannot be combined with "
+					+ "--snapshot, --models, --bootstrap, --output-shards or --sweep");
+		return options;
+	}
+
+	/** Turns the sweep on, using the defaults for whichever of thresholds and cutoffs is null **/
+	private void sweep(int[] thresholds, long[] cutoffs)
+	{
+		sweepThresholds = thresholds != null ? thresholds : ParameterSweep.DEFAULT_THRESHOLDS;
+		sweepCutoffs = cutoffs != null ? cutoffs : ParameterSweep.DEFAULT_CUTOFFS;
+	}
+
+	/** Parses a comma separated list of non-negative ints, eg "0,1,2,3" **/
+	private static int[] parseInts(String list)
+	{
+		String[] tokens = list.split(",");
+		int[] values = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			values[i] = Integer.parseInt(tokens[i].trim());
+			if (values[i] < 0)
+				throw new IllegalArgumentException("Expected a non-negative number, not " + tokens[i]);
+		}
+		return values;
+	}
+
+	/** Parses a comma separated list of non-negative longs, eg "100,250,500" **/
+	private static long[] parseLongs(String list)
+	{
+		String[] tokens = list.split(",");
+		long[] values = new long[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			values[i] = Long.parseLong(tokens[i].trim());
+			if (values[i] < 0)
+				throw new IllegalArgumentException("Expected a non-negative number, not " + tokens[i]);
+		}
+		return values;
+	}
+
+	/** Returns the part of "--name=value" after the = **/
+	private static String value(String arg)
+	{
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+
+	/** Parses a comma separated list of significance levels, eg "0.001,0.01,0.05" **/
+	private static double[] parseLevels(String list)
+	{
+		String[] tokens = list.split(",");
+		double[] levels = new double[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			levels[i] = Double.parseDouble(tokens[i].trim());
+			if (!(levels[i] > 0 && levels[i] < 1))
+				throw new IllegalArgumentException("Significance level must be in (0, 1): " + tokens[i]);
+		}
+		return levels;
+	}
+}
@@ -22,83 +22,268 @@
     along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Scanner;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 public class Runner {
 
 	private static final String INPUT_ROOT = "input";
-	private static final String OUTPUT_ROOT = "output";
-	
-	//info for calculating P values
-	private static final String TABLE_PATH = "table/ChiSq_PVals.txt";
-	public static double[][] pValues; //contains info in ChiSq_PVals. Rows = degrees of freedom, col = chi sqd
-	public static int numberOfCPIs;
-	public static int notRejected_thous; //number of individuals who did not reject when P = 0.001
-	public static int notRejected_hund; //....P = 0.01
-	public static int notRejected_fiveHund; //...P = 0.05
-	public static int rejected;
-	
-	/** Throws IOException since we do reading and writing of files **/
+	static final String OUTPUT_ROOT = "output";
+	private static final String SNAPSHOT_ROOT = "snapshot";
+	private static final String METRICS_FILE = "metrics.json";
+	
+	/** Throws IOException since we do reading and writing of files
+	 * With no arguments, asks which file in folder input to process; see RunOptions.USAGE for the flags
+	 */
 	public static void main(String[] args) throws IOException
 	{
-		numberOfCPIs = 0;
-		notRejected_thous = 0;
-		notRejected_hund = 0;
-		notRejected_fiveHund = 0;
-		rejected = 0;
-		readChiSqTable();
+		RunOptions options;
+		try
+		{
+			options = RunOptions.parse(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.print(RunOptions.USAGE);
+			System.exit(1);
+			return;
+		}
+		if (options.metrics)
+			PipelineMetrics.register();
+		try
+		{
+			run(options);
+		}
+		finally
+		{
+			if (options.metrics)
+			{
+				File report = new File(OUTPUT_ROOT, METRICS_FILE);
+				report.getParentFile().mkdirs();
+				PipelineMetrics.get().writeReport(report);
+				System.out.println("Metrics written to " + report.getPath());
+			}
+		}
+	}
+	
+	/** Runs the pipeline as options say to **/
+	private static void run(RunOptions options) throws IOException
+	{
+		if (options.followEvery > 0)
+		{
+			new ContactMonitor(options.followEvery, System.out).follow(System.in);
+			return;
+		}
+		if (options.servePort >= 0)
+		{
+			serve(options.inputs.isEmpty() ? getInputFile() : new File(options.inputs.get(0)), options);
+			return;
+		}
+		if (!options.inputs.isEmpty())
+		{
+			BatchRunner.run(options);
+			return;
+		}
 		
 		File inputFile = getInputFile();
-		TreeSet<InteractionPair> input = readInput(inputFile);
+		IndividualIndex input = null;
+		if (options.graph)
+		{
+			if (sharesGraphPass(options))
+				input = new IndividualIndex();
+			ContactGraph graph = logGraph(inputFile, inputFile.getName(), input);
+			System.out.println("Contact graph: " + graph.size() + " individuals, " + graph.getEdgeCount() 
+					+ " partnerships");
+		}
+		if (options.memoryBudget > 0 || options.offHeap)
+		{
+			ChiSquaredSummary summary = options.offHeap 
+					? processOffHeap(inputFile, inputFile.getName(), options, options.parallel, System.out)
+					: processExternal(inputFile, inputFile.getName(), options, System.out);
+			logOutput(InteractionGenerator.generateDataSet(10), "generated", options.gzip, 1);
+			summary.print(System.out);
+			return;
+		}
+		ChiSquaredSummary summary;
+		if (options.incremental)
+		{
+			IncrementalIngest ingest = readIncremental(inputFile, inputFile.getName());
+			input = ingest.getInput();
+			summary = ingest.test(options.levels, options.parallel, System.out);
+			ingest.checkpoint();
+			System.out.println(ingest.describe());
+		}
+		else
+		{
+			if (input == null) //not already read along with the graph
+				input = loadInput(inputFile, options);
+			summary = test(input, options, options.parallel, System.out);
+		}
 		
-		TreeSet<InteractionPair> generated = InteractionGenerator.generateDataSet(10);
+		IndividualIndex generated = InteractionGenerator.generateDataSet(10);
 		
-		logOutput(input);
+		logOutput(input, inputFile.getName(), options.gzip, options.outputShards);
 		
-		logOutput(generated);
+		logOutput(generated, "generated", options.gzip, 1);
 		
 		//print chi squared stuff
-		System.out.println("Number of individuals with > 250 CPIs: " + numberOfCPIs);
-		System.out.println("Number of individuals who didn't reject H0:");
-		System.out.println("P = 0.001: " + notRejected_thous);
-		System.out.println("P = 0.01: " + notRejected_hund);
-		System.out.println("P = 0.05: " + notRejected_fiveHund);
-		System.out.println("Number of individuals who rejected H0: " + rejected);
-		
+		summary.print(System.out);
+		if (options.models)
+			ModelSelector.run(input, options.parallel, null).print(System.out);
+		if (options.sweepThresholds != null)
+			logSweep(input, inputFile.getName(), options, options.parallel).print(System.out);
+	}
+	
+	/** Loads inputFile and answers queries about it until the process is stopped **/
+	private static void serve(File inputFile, RunOptions options) throws IOException
+	{
+		QueryService service = new QueryService(loadInput(inputFile, options), options.servePort, options.levels,
+				options.parallel);
+		Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+		service.start();
+		System.out.println("Serving " + service.size() + " individuals from " + inputFile.getPath() 
+				+ " on http://127.0.0.1:" + service.getPort() + "/");
+		try
+		{
+			service.awaitStop();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			service.stop();
+		}
+	}
+	
+	/** Runs the chi squared test on every individual in input, finding p-values by
+	 * bootstrap if options say to
+	 * @param parallel true to test concurrently on every core
+	 * @param out where to print each individual's result, or null to not print them
+	 */
+	public static ChiSquaredSummary test(IndividualIndex input, RunOptions options, boolean parallel, PrintStream out)
+	{
+		if (options.bootstrapReplicates > 0)
+			return BootstrapTester.run(input, parallel, options.bootstrapReplicates, BootstrapTester.DEFAULT_SEED, 
+					options.levels, out);
+		return ChiSquaredTester.run(input, parallel, options.levels, out);
+	}
+	
+	/** Parses, tests and logs the input one individual at a time, holding no more than
+	 * options.memoryBudget bytes of interactions at once; see ExternalAggregator.
+	 * Results and output are the same as the in memory stages give
+	 * @param name the name of the data set; output goes to output/<name>.csv
+	 * @param out where to print each individual's result, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 * @throws IOException in case the input is malformed, or a file cannot be read or written
+	 */
+	public static ChiSquaredSummary processExternal(File inputFile, String name, RunOptions options, PrintStream out) 
+			throws IOException
+	{
+		File root = new File(OUTPUT_ROOT);
+		root.mkdirs();
+		ChiSquaredTally tally = new ChiSquaredTally(options.levels);
+		CsvWriter writer = CsvWriter.open(new File(root, name + (options.gzip ? ".csv.gz" : ".csv")), options.gzip);
+		try
+		{
+			ExternalAggregator.aggregate(inputFile, options.memoryBudget, null, pair -> {
+				pair.setInteractionsProbabilities();
+				ChiSquaredResult result = pair.runChiSquaredTest();
+				if (result != null)
+				{
+					tally.record(result);
+					if (out != null)
+						out.println(result.toString());
+				}
+				writer.writeIndividual(pair);
+			});
+		}
+		finally
+		{
+			writer.close();
+		}
+		return tally.summarize();
+	}
+	
+	/** Sweeps the grid options give and writes the matrix to output/<name>.sweep.csv **/
+	public static SweepResult logSweep(IndividualIndex input, String name, RunOptions options, boolean parallel) 
+			throws IOException
+	{
+		SweepResult sweep = ParameterSweep.run(input, parallel, options.sweepThresholds, options.sweepCutoffs, 
+				options.levels);
+		File root = new File(OUTPUT_ROOT);
+		root.mkdirs();
+		sweep.write(new File(root, name + ".sweep.csv"));
+		return sweep;
+	}
+	
+	/** Returns true if options read the histograms the standard way, so the pass over the
+	 * input that builds the contact graph can build them too. The other modes keep their
+	 * histograms in a form of their own, and read the input for them separately
+	 */
+	static boolean sharesGraphPass(RunOptions options)
+	{
+		return options.graph && !options.incremental && !options.snapshot && options.memoryBudget == 0 
+				&& !options.offHeap;
+	}
 
+	/** Builds the contact graph of the input and writes its edges to output/<name>.graph.csv
+	 * @param input the index to read the histograms into in the same pass, as readInput
+	 *        does, or null to only build the graph
+	 * @throws IOException in case the input is malformed, or a file cannot be read or written
+	 */
+	public static ContactGraph logGraph(File inputFile, String name, IndividualIndex input) throws IOException
+	{
+		ContactGraph graph = ContactGraph.read(inputFile, input);
+		if (input != null)
+			setProbabilities(input);
+		File root = new File(OUTPUT_ROOT);
+		root.mkdirs();
+		graph.write(new File(root, name + ".graph.csv"));
+		return graph;
 	}
 	
-	public static void readChiSqTable() throws FileNotFoundException
+	/** Parses the input into an OffHeapHistogramStore, then tests and logs it, with
+	 * the same results and output as the on heap stages give
+	 * @param name the name of the data set; output goes to output/<name>.csv
+	 * @param parallel true to run the tests concurrently on every core
+	 * @param out where to print each individual's result, or null to not print them
+	 * @return the totals over every individual that had enough CPIs to be tested
+	 * @throws IOException in case the input is malformed, or a file cannot be read or written
+	 */
+	public static ChiSquaredSummary processOffHeap(File inputFile, String name, RunOptions options, boolean parallel,
+			PrintStream out) throws IOException
 	{
-		pValues = new double[100][3]; //rows index df, cols index p value
-		File table = new File(TABLE_PATH);
+		OffHeapHistogramStore store = OffHeapHistogramStore.read(inputFile);
+		ChiSquaredSummary summary = store.runChiSquaredTests(parallel, options.levels, out);
 		
-		int i = 0;
-		Scanner lineScanner = new Scanner(table);
-		lineScanner.nextLine(); //throw out first line, contains metainfo
-		while (lineScanner.hasNextLine())
-		{
-			String line = lineScanner.nextLine();
-			Scanner tokenScanner = new Scanner(line);
-			tokenScanner.next(); //throw out df val
-			double first = tokenScanner.nextDouble();
-			double second = tokenScanner.nextDouble();
-			double last = tokenScanner.nextDouble();
-			tokenScanner.close();
-			
-			double[] row = {first, second, last};
-			pValues[i] = row;
-			i++;
-		}
-		lineScanner.close();
+		long start = PipelineMetrics.start();
+		File root = new File(OUTPUT_ROOT);
+		root.mkdirs();
+		CsvWriter writer = CsvWriter.open(new File(root, name + (options.gzip ? ".csv.gz" : ".csv")), options.gzip);
+		try
+		{
+			int[] ids = store.getSortedIDs();
+			for (int i = 0; i < ids.length; i++)
+				writer.writeIndividual(store, ids[i]);
+		}
+		finally
+		{
+			writer.close();
+			PipelineMetrics.stop(PipelineMetrics.Stage.OUTPUT, start);
+		}
+		return summary;
+	}
+	
+	/** Parses the input file, or loads its snapshot, as options say to **/
+	public static IndividualIndex loadInput(File inputFile, RunOptions options) throws IOException
+	{
+		if (options.snapshot)
+			return readSnapshot(inputFile, inputFile.getName(), options.parallel);
+		return readInput(inputFile, options.parallel);
 	}
 
 	/** Returns the input file to process. Lets the user choose from
@@ -121,111 +306,174 @@ public class Runner {
 	}
 	
 	
-	/** Reads the chi squared table in folder table, and returns it
-	 * 
-	 * @return a table giving ideal chi squared values for degrees of 
-	 * freedom [1-->100], 
+	/** Parses the input file and returns the information as an index of individuals
+	 *  PRECONDITION: the input file is in the format specified by paper
+	 *  "A high-resolution human contact network for infectious disease transmission"
+	 * @param inputFile the file to parse
+	 * @return input the parsed input, with statistics calculated
+	 * @throws IOException in case the input file does not exist, cannot be read, or is malformed
 	 */
-	public static int[][] readChiSqVals()
+	public static IndividualIndex readInput(File inputFile) throws IOException
 	{
-		return null;
+		return readInput(inputFile, false);
 	}
 	
-	/** Parses the input file and returns the information as an treeset
+	/** Parses the input file and returns the information as an index of individuals
 	 *  PRECONDITION: the input file is in the format specified by paper
 	 *  "A high-resolution human contact network for infectious disease transmission"
-	 * @param inputFile the file to parse
+	 * @param inputFile the file to parse, which may be gzipped; see GzipIngest
+	 * @param parallel true to split the file and parse it on every core
 	 * @return input the parsed input, with statistics calculated
-	 * @throws FileNotFoundException in case the input file does not exist
+	 * @throws IOException in case the input file does not exist, cannot be read, or is malformed
 	 */
-	public static TreeSet<InteractionPair> readInput(File inputFile) throws FileNotFoundException
+	public static IndividualIndex readInput(File inputFile, boolean parallel) throws IOException
 	{
-		TreeSet<InteractionPair> input = new TreeSet<>();
-		Scanner lineScanner = new Scanner(inputFile);
-		
-		//each line specifies an interaction of the form "human_id1 human_id2 interaction_duration"
-		Scanner tokens = new Scanner(System.in);
-		while (lineScanner.hasNext())
-		{
-			String line = lineScanner.nextLine();
-			tokens = new Scanner(line);
-			int id = tokens.nextInt(); 
-			//we dont care about who they had the interaction with, so just throw that info away
-			tokens.next();
-			int duration = tokens.nextInt();
-			
-			//check to see if we already have an interaction pair for this guy
-			InteractionPair maybeExists = new InteractionPair(id);
-			boolean contains = input.contains(maybeExists);
-			if (contains)
-			{
-				//get the interactionPair
-				InteractionPair excludes = new InteractionPair(id + 1);
-				SortedSet<InteractionPair> thisInteractionSet = input.subSet(maybeExists, excludes);
-				if (thisInteractionSet.size() != 1)
-					System.out.println("Error when specifying comparator; fix");
-				
-				//log this interaction
-				InteractionPair thisInteraction = thisInteractionSet.first();
-				thisInteraction.addInteraction(duration);
-				
-				//stick it back into input
-				input.remove(thisInteraction);
-				input.add(thisInteraction);
-			}
-			
-			else //else, an interactionPair for this person doesn't yet exist. Make one
-			{
-				maybeExists.addInteraction(duration);
-				input.add(maybeExists);
-			}
+		long start = PipelineMetrics.start();
+		IndividualIndex input;
+		if (parallel)
+			input = GzipIngest.isGzip(inputFile) ? GzipIngest.read(inputFile) : ShardedIngest.read(inputFile);
+		else
+		{
+			IndividualIndex sequential = new IndividualIndex();
+			//each line specifies an interaction of the form "human_id1 human_id2 interaction_duration"
+			//we dont care about who they had the interaction with, so the parser's partner id is thrown away
+			ContactParser.parse(inputFile, (id, partner, duration) -> 
+				sequential.getOrCreate(id).addInteraction(duration));
+			input = sequential;
 		}
-		tokens.close();
-		lineScanner.close();
-		
+		PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, start);
+		setProbabilities(input);
+		return input;
+	}
+	
+	/** Sets the probabilities of every individual in input **/
+	private static void setProbabilities(IndividualIndex input)
+	{
 		//set the probabilities & run Chi Squared for each interactionPair
-		Iterator<InteractionPair> iter = input.iterator();
-		while (iter.hasNext())
+		long start = PipelineMetrics.start();
+		InteractionPair[] pairs = input.toArray();
+		for (int i = 0; i < pairs.length; i++)
 		{
-			InteractionPair thisPair = iter.next();
+			InteractionPair thisPair = pairs[i];
 			thisPair.setInteractionsProbabilities();
 //			thisPair.runChiSquaredTest();
 		}
+		PipelineMetrics.stop(PipelineMetrics.Stage.PROBABILITY, start);
+	}
+	
+	/** Returns the parsed input, loading it from its binary snapshot in folder
+	 * snapshot if that is up to date. Otherwise parses the input and writes a
+	 * snapshot for next time
+	 * @param inputFile the file to parse
+	 * @param name the name of the data set; the snapshot is snapshot/<name>.cpis
+	 * @param parallel true to parse the file on every core, if it must be parsed
+	 * @return input the parsed input
+	 * @throws IOException in case the input or snapshot cannot be read or written
+	 */
+	public static IndividualIndex readSnapshot(File inputFile, String name, boolean parallel) throws IOException
+	{
+		File snapshotFile = new File(SNAPSHOT_ROOT, name + HistogramSnapshot.EXTENSION);
+		if (HistogramSnapshot.isCurrent(snapshotFile, inputFile))
+		{
+			long start = PipelineMetrics.start();
+			IndividualIndex input = HistogramSnapshot.open(snapshotFile).toIndex();
+			PipelineMetrics.stop(PipelineMetrics.Stage.INGEST, start);
+			return input;
+		}
 		
+		IndividualIndex input = readInput(inputFile, parallel);
+		snapshotFile.getParentFile().mkdirs();
+		HistogramSnapshot.write(input, inputFile, snapshotFile);
 		return input;
 	}
 	
-	/** Log (duration, probability) pairs as a .csv 
+	/** Parses what inputFile has gained since its checkpoint in folder snapshot, or all
+	 * of it if it has none; see IncrementalIngest
+	 * @param name the name of the data set; the checkpoint is snapshot/<name>.checkpoint
+	 * @throws IOException in case the input is malformed or cannot be read
+	 */
+	public static IncrementalIngest readIncremental(File inputFile, String name) throws IOException
+	{
+		return IncrementalIngest.read(inputFile, new File(SNAPSHOT_ROOT, name + IncrementalIngest.EXTENSION));
+	}
+	
+	/** Log (duration, probability) pairs as output/output.csv, in order of id 
 	 * @throws IOException, since we are logging to a file
 	 **/
-	public static void logOutput(TreeSet<InteractionPair> input) throws IOException
+	public static void logOutput(IndividualIndex input) throws IOException
 	{
-		File outputFile = new File(OUTPUT_ROOT + "/output.csv");
-		outputFile.createNewFile();
-		FileWriter inner = new FileWriter(outputFile);
-		BufferedWriter writer = new BufferedWriter(inner);
-		
-		//print contents, for testing
-		Iterator<InteractionPair> pairIter = input.iterator();
-		while (pairIter.hasNext())
-		{
-			InteractionPair thisHuman = pairIter.next();
-			writer.write("Interactions for human " + thisHuman.getID() + "\n");
-			TreeSet<Interaction> interactions = thisHuman.getInteractions();
-			Iterator<Interaction> iter = interactions.iterator();
-			
-			while (iter.hasNext())
+		logOutput(input, "output", false, 1);
+	}
+	
+	/** Log (duration, probability) pairs as a .csv, in order of id. With more than
+	 * one shard, the individuals are split into that many runs of ids, each written
+	 * to its own file on its own thread
+	 * @param input the individuals to log
+	 * @param name the name of the data set; output goes to output/<name>.csv, or
+	 * output/<name>.part<i>.csv when sharded
+	 * @param gzip true to gzip the output, adding .gz to the file names
+	 * @param shards the number of files to split the output into
+	 * @throws IOException, since we are logging to a file
+	 **/
+	public static void logOutput(IndividualIndex input, String name, boolean gzip, int shards) throws IOException
+	{
+		long start = PipelineMetrics.start();
+		try
+		{
+			writeOutput(input, name, gzip, shards);
+		}
+		finally
+		{
+			PipelineMetrics.stop(PipelineMetrics.Stage.OUTPUT, start);
+		}
+	}
+	
+	private static void writeOutput(IndividualIndex input, String name, boolean gzip, int shards) throws IOException
+	{
+		File root = new File(OUTPUT_ROOT);
+		root.mkdirs();
+		String extension = gzip ? ".csv.gz" : ".csv";
+		InteractionPair[] pairs = input.toSortedArray();
+		if (shards <= 1)
+		{
+			CsvWriter writer = CsvWriter.open(new File(root, name + extension), gzip);
+			try
+			{
+				writer.writeAll(pairs);
+			}
+			finally
 			{
-				Interaction thisInteraction = iter.next();
-				int duration = thisInteraction.getDuration();
-				double prob = thisInteraction.getProbability();
-				//writer.write(duration + ", " + prob + "\n");
-				writer.write(thisInteraction.toString() + "\n");
+				writer.close();
 			}
-			
+			return;
 		}
 		
-		writer.close();
-		inner.close();
+		IOException[] errors = new IOException[shards];
+		IntStream.range(0, shards).parallel().forEach(shard -> {
+			int from = (int) ((long) pairs.length * shard / shards);
+			int to = (int) ((long) pairs.length * (shard + 1) / shards);
+			File outputFile = new File(root, name + ".part" + shard + extension);
+			try
+			{
+				CsvWriter writer = CsvWriter.open(outputFile, gzip);
+				try
+				{
+					writer.writeAll(Arrays.copyOfRange(pairs, from, to));
+				}
+				finally
+				{
+					writer.close();
+				}
+			}
+			catch (IOException e)
+			{
+				errors[shard] = e;
+			}
+		});
+		for (int i = 0; i < shards; i++)
+		{
+			if (errors[i] != null)
+				throw errors[i];
+		}
 	}
 }
@@ -0,0 +1,184 @@
+/**Parses a contact file on several threads at once. The file is split into
+ * line-aligned byte ranges, each range is parsed into its own IndividualIndex on
+ * its own thread, and the partial indexes are merged in range order at the end.
+ * Counts are additive, so the result is the same as a single-threaded parse
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardedIngest
+{
+	private static final long MIN_SHARD_SIZE = 1 << 22; //files smaller than this per thread aren't worth splitting
+	private static final int SCAN_SIZE = 1 << 12; //bytes read at a time when looking for a line break
+
+	/** Parses inputFile using one thread per available core
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile) throws IOException
+	{
+		return read(inputFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Parses inputFile using up to numThreads threads
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile, int numThreads) throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try
+		{
+			return read(inputFile, numThreads, pool);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/** Parses inputFile in up to numThreads shards, on threads from pool. The pool is left
+	 * running, so callers parsing many files can keep the same threads
+	 * @return an index of every individual in the file, with no probabilities set
+	 * @throws IOException if the file cannot be read or a record is malformed
+	 */
+	public static IndividualIndex read(File inputFile, int numThreads, ExecutorService pool) throws IOException
+	{
+		FileInputStream stream = new FileInputStream(inputFile);
+		try
+		{
+			FileChannel channel = stream.getChannel();
+			long[] bounds = split(channel, numThreads);
+			if (bounds.length == 2) //only one shard, so parse it here
+				return parseShard(channel, bounds[0], bounds[1]);
+
+			int numShards = bounds.length - 1;
+			try
+			{
+				ArrayList<Future<IndividualIndex>> shards = new ArrayList<>();
+				for (int i = 0; i < numShards; i++)
+				{
+					long start = bounds[i];
+					long end = bounds[i + 1];
+					shards.add(pool.submit(() -> parseShard(channel, start, end)));
+				}
+
+				//merge in shard order, so the result never depends on thread timing
+				IndividualIndex input = shards.get(0).get();
+				for (int i = 1; i < numShards; i++)
+				{
+					IndividualIndex shard = shards.get(i).get();
+					long mergeStart = PipelineMetrics.start();
+					input.merge(shard);
+					PipelineMetrics.stop(PipelineMetrics.Stage.MERGE, mergeStart);
+				}
+				return input;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + inputFile, e);
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException("Failed to read " + inputFile, e.getCause());
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/** Parses bytes [start, end) of channel into a new index **/
+	private static IndividualIndex parseShard(FileChannel channel, long start, long end) throws IOException
+	{
+		IndividualIndex shard = new IndividualIndex();
+		try
+		{
+			ContactParser.parse(channel, start, end, (id, partner, duration) ->
+				shard.getOrCreate(id).addInteraction(duration));
+		}
+		catch (IOException e)
+		{
+			throw new IOException(e.getMessage() + " (of the shard starting at byte " + start + ")", e);
+		}
+		return shard;
+	}
+
+	/** Splits channel into at most numShards ranges, each ending just past a newline
+	 * (or at the end of the file)
+	 * @return the boundaries of the ranges; range i is [bounds[i], bounds[i + 1])
+	 */
+	static long[] split(FileChannel channel, int numShards) throws IOException
+	{
+		long size = channel.size();
+		numShards = (int) Math.max(1, Math.min(numShards, size / MIN_SHARD_SIZE));
+
+		long[] bounds = new long[numShards + 1];
+		int count = 1; //bounds[0] is 0
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+		for (int i = 1; i < numShards; i++)
+		{
+			long guess = Math.max(size * i / numShards, bounds[count - 1]);
+			long boundary = nextLineStart(channel, guess, size, scan);
+			if (boundary > bounds[count - 1] && boundary < size)
+			{
+				bounds[count] = boundary;
+				count++;
+			}
+		}
+		bounds[count] = size;
+
+		long[] trimmed = new long[count + 1];
+		System.arraycopy(bounds, 0, trimmed, 0, count + 1);
+		return trimmed;
+	}
+
+	/** Returns the position just past the first newline at or after position,
+	 * or size if there is no such newline
+	 */
+	private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer scan)
+			throws IOException
+	{
+		while (position < size)
+		{
+			scan.clear();
+			int read = channel.read(scan, position);
+			if (read <= 0)
+				break;
+			byte[] bytes = scan.array();
+			for (int i = 0; i < read; i++)
+			{
+				if (bytes[i] == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,103 @@
+/**The results matrix of a ParameterSweep: for every (observation threshold, sample size
+ * cutoff) cell, how many individuals were tested and how many rejected H0 at each
+ * significance level
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+public class SweepResult
+{
+	private final int[] thresholds;
+	private final long[] cutoffs;
+	private final double[] levels;
+	private final long[] tested; //tested[t * cutoffs + c]
+	private final long[] rejected; //rejected[(t * cutoffs + c) * levels + l]
+
+	public SweepResult(int[] thresholds, long[] cutoffs, double[] levels, long[] tested, long[] rejected)
+	{
+		this.thresholds = thresholds.clone();
+		this.cutoffs = cutoffs.clone();
+		this.levels = levels.clone();
+		this.tested = tested.clone();
+		this.rejected = rejected.clone();
+	}
+
+	public int[] getThresholds()
+	{
+		return thresholds.clone();
+	}
+
+	public long[] getCutoffs()
+	{
+		return cutoffs.clone();
+	}
+
+	public double[] getLevels()
+	{
+		return levels.clone();
+	}
+
+	/** Returns the number of individuals tested with thresholds[t] and cutoffs[c] **/
+	public long getTested(int t, int c)
+	{
+		return tested[t * cutoffs.length + c];
+	}
+
+	/** Returns the number of individuals who rejected H0 at levels[l], with thresholds[t] and cutoffs[c] **/
+	public long getRejected(int t, int c, int l)
+	{
+		return rejected[(t * cutoffs.length + c) * levels.length + l];
+	}
+
+	/** Prints the matrix as csv: a header, then one row per cell **/
+	public void print(PrintStream out)
+	{
+		StringBuilder header = new StringBuilder("threshold, cutoff, tested");
+		for (int l = 0; l < levels.length; l++)
+			header.append(", rejected at P = ").append(levels[l]);
+		out.println(header);
+		for (int t = 0; t < thresholds.length; t++)
+		{
+			for (int c = 0; c < cutoffs.length; c++)
+			{
+				StringBuilder row = new StringBuilder();
+				row.append(thresholds[t]).append(", ").append(cutoffs[c]).append(", ").append(getTested(t, c));
+				for (int l = 0; l < levels.length; l++)
+					row.append(", ").append(getRejected(t, c, l));
+				out.println(row);
+			}
+		}
+	}
+
+	/** Writes the matrix to outputFile as csv; see print() **/
+	public void write(File outputFile) throws IOException
+	{
+		PrintStream out = new PrintStream(new FileOutputStream(outputFile));
+		try
+		{
+			print(out);
+			if (out.checkError())
+				throw new IOException("Could not write " + outputFile);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
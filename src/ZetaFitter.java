@@ -0,0 +1,112 @@
+/**Fits the discrete power law Zeta(s), P(k) = k^-s / zeta(s), by maximum likelihood.
+ * The MLE solves -zeta'(s) / zeta(s) = mean(ln k), so it needs nothing from the bins but
+ * their summed logs. zeta(s) and zeta'(s) are summed directly for the first terms, and
+ * the rest of the series is taken from its Euler-Maclaurin expansion
+ *
+ * (Copyright 2020 Madison Pickering)
+ * This file is part of EnvironmentalSIR_probhelper.
+    EnvironmentalSIR_probhelper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    EnvironmentalSIR_probhelper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with EnvironmentalSIR_probhelper.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class ZetaFitter implements DistributionFitter
+{
+	private static final int DIRECT_TERMS = 16; //terms of the series summed directly; the rest is the tail
+	private static final double MIN_S = 1 + 1e-9; //zeta(s) diverges at s = 1
+	private static final double MAX_S = 50; //past here, practically every interaction has k = 1
+	private static final double[] LOG_K = new double[DIRECT_TERMS]; //LOG_K[k] = ln(k)
+
+	static
+	{
+		for (int k = 1; k < DIRECT_TERMS; k++)
+			LOG_K[k] = Math.log(k);
+	}
+
+	private double s; //the fitted exponent
+	private double logZeta; //ln(zeta(s))
+	//the results of the last call to evaluate()
+	private double zeta;
+	private double zetaDerivative;
+
+	@Override
+	public String getName()
+	{
+		return "zeta";
+	}
+
+	@Override
+	public int getNumParameters()
+	{
+		return 1;
+	}
+
+	@Override
+	public boolean fit(ObservedBins observed)
+	{
+		double meanLog = observed.getSumLogTrials() / observed.getSampleSize();
+		if (meanLog <= 0) //every interaction has k = 1; s would be infinite
+			return false;
+
+		s = ModelSelector.findRoot(x -> {
+			evaluate(x);
+			return -zetaDerivative / zeta - meanLog; //decreasing in x
+		}, MIN_S, MAX_S);
+		if (Double.isNaN(s))
+			return false;
+		evaluate(s);
+		logZeta = Math.log(zeta);
+		return true;
+	}
+
+	@Override
+	public double logProbability(ObservedBins observed, int i)
+	{
+		return -s * observed.getLogTrials(i) - logZeta;
+	}
+
+	@Override
+	public String describe()
+	{
+		return "s=" + s;
+	}
+
+	/** Sets zeta and zetaDerivative to zeta(x) and zeta'(x) **/
+	private void evaluate(double x)
+	{
+		double sum = 0;
+		double derivative = 0;
+		for (int k = 1; k < DIRECT_TERMS; k++)
+		{
+			double logK = LOG_K[k];
+			double term = Math.exp(-x * logK);
+			sum += term;
+			derivative -= logK * term;
+		}
+
+		//the tail, k >= n, by Euler-Maclaurin
+		double n = DIRECT_TERMS;
+		double logN = Math.log(n);
+		double a = Math.exp(-x * logN); //n^-x
+		double integral = n * a / (x - 1);
+		double half = a / 2;
+		double first = x * a / (12 * n);
+		double cubic = x * (x + 1) * (x + 2);
+		double third = cubic * a / (720 * n * n * n);
+		sum += integral + half + first - third;
+		derivative += -logN * integral - integral / (x - 1)
+				- logN * half
+				+ first / x - logN * first
+				- ((3 * x * x + 6 * x + 2) * a / (720 * n * n * n) - logN * third);
+
+		zeta = sum;
+		zetaDerivative = derivative;
+	}
+}